@@ -0,0 +1,52 @@
+package com.dynatrace.kafka.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import kafka.consumer.PurePathStarter;
+import kafka.message.MessageAndMetadata;
+
+/**
+ * {@code PurePathStarter.handle} for records of the new ({@code ConsumerRecords}) and
+ * the old ({@code ConsumerIterator}) consumer API.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConsumerHandleBenchmark {
+
+	private ConsumerRecord<String, String> consumerRecord;
+	private MessageAndMetadata messageAndMetadata;
+
+	@Setup
+	public void setup() {
+		Records.SingleHeader headers = new Records.SingleHeader();
+		headers.add("dtdTraceTagInfo", "FW4;1481367847;0;4;1481367847;0;0".getBytes());
+		consumerRecord = Records.consumerRecord("orders", 3, 1234567L, headers);
+		messageAndMetadata = Records.messageAndMetadata("orders", 3, 1234567L);
+	}
+
+	@Benchmark
+	public Object handleConsumerRecord() {
+		return PurePathStarter.handle(consumerRecord);
+	}
+
+	@Benchmark
+	public Object handleMessageAndMetadata() {
+		return PurePathStarter.handle(messageAndMetadata);
+	}
+}
@@ -0,0 +1,131 @@
+package com.dynatrace.kafka.bench;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dynatrace.kafka.CustomTagCodec;
+
+/**
+ * Encoding and decoding custom tags via {@link CustomTagCodec}. Run with {@code -prof gc}
+ * to verify that encoding does not allocate, {@code gc.alloc.rate.norm} is expected to be
+ * {@code 0} for all {@code encode} benchmarks.<br />
+ * <br />
+ * Every trial first verifies that tags round trip, including the boundary values
+ * taking the shortest and the longest varints, see {@link #verifyRoundTrip()}. It can
+ * also be run on its own via {@link #main(String[])}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CustomTagCodecBenchmark {
+
+	private final byte[] array = new byte[CustomTagCodec.MAX_LENGTH];
+	private final ByteBuffer heapBuffer = ByteBuffer.allocate(CustomTagCodec.MAX_LENGTH);
+	private final ByteBuffer directBuffer = ByteBuffer.allocateDirect(CustomTagCodec.MAX_LENGTH);
+	private final byte[] tag = CustomTagCodec.encode("orders", 17, 1000000000L).clone();
+	private long offset = 1000000000L;
+
+	private static final int[] PARTITIONS = { 0, -1, 1, 63, -64, 64, Integer.MAX_VALUE, Integer.MIN_VALUE };
+
+	private static final long[] OFFSETS = { 0L, -1L, 1L, 63L, -64L, 64L, 1L << 34, Integer.MAX_VALUE, Long.MAX_VALUE, Long.MIN_VALUE };
+
+	public static void main(String[] args) {
+		verifyRoundTrip();
+		System.out.println("CustomTagCodec round trip OK");
+	}
+
+	/**
+	 * Encodes every combination of {@link #PARTITIONS} and {@link #OFFSETS} via all three
+	 * {@code encode} variants and checks the decoded values and the expected lengths.
+	 *
+	 * @throws IllegalStateException if a tag does not round trip
+	 */
+	@Setup(Level.Trial)
+	public static void verifyRoundTrip() {
+		byte[] array = new byte[CustomTagCodec.MAX_LENGTH + 3];
+		ByteBuffer buffer = ByteBuffer.allocateDirect(CustomTagCodec.MAX_LENGTH);
+		for (int partition : PARTITIONS) {
+			for (long offset : OFFSETS) {
+				byte[] tag = CustomTagCodec.encode("orders", partition, offset).clone();
+				int expected = 1 + 8 + varintLength(((partition << 1) ^ (partition >> 31)) & 0xFFFFFFFFL) + varintLength((offset << 1) ^ (offset >> 63));
+				check(tag.length == expected, "length " + tag.length + " instead of " + expected, partition, offset);
+				check(CustomTagCodec.isValid(tag), "invalid", partition, offset);
+				check("orders".equals(CustomTagCodec.decodeTopic(tag)), "topic " + CustomTagCodec.decodeTopic(tag), partition, offset);
+				check(CustomTagCodec.decodeTopicId(tag) == CustomTagCodec.topicId("orders"), "topic id", partition, offset);
+				check(CustomTagCodec.decodePartition(tag) == partition, "partition " + CustomTagCodec.decodePartition(tag), partition, offset);
+				check(CustomTagCodec.decodeOffset(tag) == offset, "offset " + CustomTagCodec.decodeOffset(tag), partition, offset);
+				check(CustomTagCodec.encode("orders", partition, offset, array, 3) == 3 + tag.length, "array length", partition, offset);
+				check(Arrays.equals(Arrays.copyOfRange(array, 3, 3 + tag.length), tag), "array content", partition, offset);
+				buffer.clear();
+				CustomTagCodec.encode("orders", partition, offset, buffer);
+				byte[] buffered = new byte[buffer.position()];
+				buffer.flip();
+				buffer.get(buffered);
+				check(Arrays.equals(buffered, tag), "buffer content", partition, offset);
+				check(!CustomTagCodec.isValid(Arrays.copyOf(tag, tag.length - 1)), "truncated tag valid", partition, offset);
+			}
+		}
+		check(CustomTagCodec.encode("orders", Integer.MAX_VALUE, Long.MAX_VALUE).length == CustomTagCodec.MAX_LENGTH, "longest tag", 0, 0);
+		check(CustomTagCodec.topicId("orders") != CustomTagCodec.topicId("orderz"), "topic ids equal", 0, 0);
+	}
+
+	private static int varintLength(long value) {
+		int length = 1;
+		while ((value & ~0x7FL) != 0) {
+			value >>>= 7;
+			length++;
+		}
+		return length;
+	}
+
+	private static void check(boolean condition, String message, int partition, long offset) {
+		if (!condition) {
+			throw new IllegalStateException("CustomTagCodec round trip failed for partition " + partition + ", offset " + offset + ": " + message);
+		}
+	}
+
+	@Benchmark
+	public int encodeIntoArray() {
+		return CustomTagCodec.encode("orders", 17, offset++, array, 0);
+	}
+
+	@Benchmark
+	public int encodeIntoHeapBuffer() {
+		heapBuffer.clear();
+		CustomTagCodec.encode("orders", 17, offset++, heapBuffer);
+		return heapBuffer.position();
+	}
+
+	@Benchmark
+	public int encodeIntoDirectBuffer() {
+		directBuffer.clear();
+		CustomTagCodec.encode("orders", 17, offset++, directBuffer);
+		return directBuffer.position();
+	}
+
+	@Benchmark
+	public byte[] encodeThreadLocal() {
+		return CustomTagCodec.encode("orders", 17, offset++);
+	}
+
+	@Benchmark
+	public long decode() {
+		return CustomTagCodec.decodeTopicId(tag) + CustomTagCodec.decodePartition(tag) + CustomTagCodec.decodeOffset(tag);
+	}
+}
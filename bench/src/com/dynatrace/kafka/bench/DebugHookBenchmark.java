@@ -0,0 +1,57 @@
+package com.dynatrace.kafka.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dynatrace.kafka.DebugException;
+import com.dynatrace.kafka.DebugHook;
+
+/**
+ * The per object cost of the probe points injected into constructors of the old
+ * consumer API: the former thrown exception filling in its stack trace compared
+ * to {@link DebugHook} and to throwing the stack trace free {@link DebugException}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DebugHookBenchmark {
+
+	@Benchmark
+	public Object throwExceptionWithStackTrace() {
+		Object instance = new Object();
+		try {
+			throw new Exception();
+		} catch (Throwable t) {
+		}
+		return instance;
+	}
+
+	@Benchmark
+	public Object throwDebugException() {
+		Object instance = new Object();
+		try {
+			throw new DebugException();
+		} catch (Throwable t) {
+		}
+		return instance;
+	}
+
+	@Benchmark
+	public Object debugHook() {
+		Object instance = new Object();
+		DebugHook.constructed(instance);
+		return instance;
+	}
+}
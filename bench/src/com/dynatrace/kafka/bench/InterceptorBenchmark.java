@@ -0,0 +1,104 @@
+package com.dynatrace.kafka.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.dynatrace.kafka.TracingConsumerInterceptor;
+import com.dynatrace.kafka.TracingProducerInterceptor;
+
+import kafka.consumer.PurePathStarter;
+
+/**
+ * The per record overhead of {@code com.dynatrace.kafka.Instrumentation#INTERCEPTOR}
+ * compared to {@code WEAVING}, both passing the trace tag within a record header.
+ * Consuming polls a batch of {@code records} records and iterates it, every record
+ * carrying one of two alternating trace tags. The Agent skips calls belonging to the
+ * instrumentation not in effect, so the intercepted benchmarks fork with
+ * {@code INTERCEPTOR} configured. For the time added to startup see {@link WeaverBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dcom.dynatrace.kafka.agent.propagation=HEADER")
+public class InterceptorBenchmark {
+
+	@Param({ "1", "500" })
+	public int records;
+
+	private Records.Producer producer;
+	private ProducerRecord producerRecord;
+	private ConsumerRecords<String, String> consumerRecords;
+	private final TracingProducerInterceptor<String, String> producerInterceptor = new TracingProducerInterceptor<>();
+	private final TracingConsumerInterceptor<String, String> consumerInterceptor = new TracingConsumerInterceptor<>();
+
+	@Setup
+	public void setup() {
+		producer = new Records.Producer(Records.recordMetadata("orders", 3, 4711L));
+		producerRecord = Records.producerRecord("orders");
+		List<ConsumerRecord<String, String>> batch = new ArrayList<>(records);
+		for (int i = 0; i < records; i++) {
+			Records.SingleHeader headers = new Records.SingleHeader();
+			headers.add("dtdTraceTagInfo", ("FW4;1481367847;" + (i & 1) + ";4;1481367847;0;0").getBytes());
+			batch.add(Records.consumerRecord("orders", 3, 1234567L + i, headers));
+		}
+		consumerRecords = Records.consumerRecords(batch);
+	}
+
+	/**
+	 * {@code KafkaProducer.send} as woven.
+	 */
+	@Benchmark
+	public Object wovenSend() {
+		return producer.send(producerRecord, null);
+	}
+
+	/**
+	 * {@code KafkaProducer.send} left untouched, calling the interceptor.
+	 */
+	@Benchmark
+	@Fork(value = 1, jvmArgsAppend = { "-Dcom.dynatrace.kafka.agent.propagation=HEADER", "-Dcom.dynatrace.kafka.agent.instrumentation=INTERCEPTOR" })
+	public Object interceptedSend() {
+		return producer.send_dtd_orig(producerInterceptor.onSend(producerRecord), null);
+	}
+
+	/**
+	 * The iterator of {@code ConsumerRecords} as woven, handing over every record and finally {@code null}.
+	 */
+	@Benchmark
+	public void wovenConsume(Blackhole blackhole) {
+		for (ConsumerRecord<String, String> record : consumerRecords) {
+			blackhole.consume(PurePathStarter.handle(record));
+		}
+		PurePathStarter.handle((ConsumerRecord<?, ?>) null);
+	}
+
+	/**
+	 * {@code KafkaConsumer.poll} calling the interceptor, the iterator left untouched.
+	 */
+	@Benchmark
+	@Fork(value = 1, jvmArgsAppend = { "-Dcom.dynatrace.kafka.agent.propagation=HEADER", "-Dcom.dynatrace.kafka.agent.instrumentation=INTERCEPTOR" })
+	public void interceptedConsume(Blackhole blackhole) {
+		for (ConsumerRecord<String, String> record : consumerInterceptor.onConsume(consumerRecords)) {
+			blackhole.consume(record);
+		}
+	}
+}
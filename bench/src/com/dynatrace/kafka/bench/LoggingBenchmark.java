@@ -0,0 +1,39 @@
+package com.dynatrace.kafka.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dynatrace.kafka.Logging;
+
+/**
+ * {@link Logging} calls at log levels which are disabled by default.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoggingBenchmark {
+
+	private final Exception exception = new Exception("benchmark");
+
+	@Benchmark
+	public void fineDisabled() {
+		Logging.fine("intercepted loading of org.apache.kafka.clients.producer.KafkaProducer");
+	}
+
+	@Benchmark
+	public void errorDisabled() {
+		Logging.error("transformation of org.apache.kafka.clients.producer.KafkaProducer failed", exception);
+	}
+}
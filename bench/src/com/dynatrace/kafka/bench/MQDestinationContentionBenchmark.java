@@ -0,0 +1,66 @@
+package com.dynatrace.kafka.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dynatrace.kafka.DestinationCache;
+import com.ibm.mq.MQDestination;
+import com.ibm.mq.MQException;
+import com.ibm.mq.MQMessage;
+
+/**
+ * Consumer threads reading the same topic, all handing their records to one shared
+ * {@link MQDestination} looked up via {@link DestinationCache}. The throughput per
+ * thread is expected to stay the same for every number of threads.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MQDestinationContentionBenchmark {
+
+	private final MQMessage message = new MQMessage();
+	private long offset = 1000000000L;
+
+	private MQMessage get() throws MQException {
+		message.set(offset++, 17);
+		DestinationCache.get("orders").get(message);
+		return message;
+	}
+
+	@Benchmark
+	@Threads(1)
+	public MQMessage get1() throws MQException {
+		return get();
+	}
+
+	@Benchmark
+	@Threads(2)
+	public MQMessage get2() throws MQException {
+		return get();
+	}
+
+	@Benchmark
+	@Threads(4)
+	public MQMessage get4() throws MQException {
+		return get();
+	}
+
+	@Benchmark
+	@Threads(8)
+	public MQMessage get8() throws MQException {
+		return get();
+	}
+}
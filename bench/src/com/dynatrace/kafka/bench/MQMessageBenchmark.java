@@ -0,0 +1,42 @@
+package com.dynatrace.kafka.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.mq.MQMessage;
+
+/**
+ * Encoding partition and offset into an {@link MQMessage}, either into a new
+ * one (producer side) or into a reused one (consumer side).
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MQMessageBenchmark {
+
+	private final MQMessage message = new MQMessage();
+	private long offset = 1000000000L;
+
+	@Benchmark
+	public MQMessage construct() {
+		return new MQMessage(offset++, 17);
+	}
+
+	@Benchmark
+	public MQMessage refill() {
+		message.set(offset++, 17);
+		return message;
+	}
+}
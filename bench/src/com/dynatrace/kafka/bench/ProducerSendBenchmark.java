@@ -0,0 +1,42 @@
+package com.dynatrace.kafka.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@code KafkaProducer.send} as woven by the Agent, down to the tagging engine.
+ * Every record is acknowledged right away, so the engine links it as well.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProducerSendBenchmark {
+
+	private Records.Producer producer;
+	private ProducerRecord record;
+
+	@Setup
+	public void setup() {
+		producer = new Records.Producer(Records.recordMetadata("orders", 3, 4711L));
+		record = Records.producerRecord("orders");
+	}
+
+	@Benchmark
+	public Object send() {
+		return producer.send(record, null);
+	}
+}
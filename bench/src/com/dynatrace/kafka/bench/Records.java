@@ -0,0 +1,181 @@
+package com.dynatrace.kafka.bench;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.KafkaProducerStub;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+
+import kafka.message.MessageAndMetadata;
+
+/**
+ * Stand-ins for the Kafka client classes the instrumented hot paths operate on,
+ * built on top of the stub classes of the Agent.
+ */
+final class Records {
+
+	private Records() {
+		// prevent instantiation
+	}
+
+	/**
+	 * A {@link KafkaProducerStub} acknowledging every record right away on the sending thread.
+	 */
+	static final class Producer extends KafkaProducerStub {
+
+		private final RecordMetadata metadata;
+
+		Producer(RecordMetadata metadata) {
+			this.metadata = metadata;
+		}
+
+		@Override
+		public Future<RecordMetadata> send_dtd_orig(ProducerRecord record, Callback callback) {
+			if (callback != null) {
+				callback.onCompletion(metadata, null);
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * {@link Headers} holding at most one header.
+	 */
+	static final class SingleHeader implements Headers, Header {
+
+		private String key;
+		private byte[] value;
+
+		@Override
+		public Headers add(String key, byte[] value) {
+			this.key = key;
+			this.value = value;
+			return this;
+		}
+
+		@Override
+		public Headers remove(String key) {
+			if (key.equals(this.key)) {
+				this.key = null;
+				this.value = null;
+			}
+			return this;
+		}
+
+		@Override
+		public Header lastHeader(String key) {
+			if (key.equals(this.key)) {
+				return this;
+			}
+			return null;
+		}
+
+		@Override
+		public String key() {
+			return key;
+		}
+
+		@Override
+		public byte[] value() {
+			return value;
+		}
+	}
+
+	static ProducerRecord producerRecord(final String topic) {
+		final Headers headers = new SingleHeader();
+		return new ProducerRecord() {
+			@Override
+			public String topic() {
+				return topic;
+			}
+
+			@Override
+			public Headers headers() {
+				return headers;
+			}
+		};
+	}
+
+	static RecordMetadata recordMetadata(final String topic, final int partition, final long offset) {
+		return new RecordMetadata() {
+			@Override
+			public String topic() {
+				return topic;
+			}
+
+			@Override
+			public int partition() {
+				return partition;
+			}
+
+			@Override
+			public long offset() {
+				return offset;
+			}
+		};
+	}
+
+	static ConsumerRecord<String, String> consumerRecord(final String topic, final int partition, final long offset, final Headers headers) {
+		return new ConsumerRecord<String, String>() {
+			@Override
+			public String topic() {
+				return topic;
+			}
+
+			@Override
+			public int partition() {
+				return partition;
+			}
+
+			@Override
+			public long offset() {
+				return offset;
+			}
+
+			@Override
+			public Headers headers() {
+				return headers;
+			}
+		};
+	}
+
+	static ConsumerRecords<String, String> consumerRecords(final List<ConsumerRecord<String, String>> records) {
+		return new ConsumerRecords<String, String>() {
+			@Override
+			public Iterator<ConsumerRecord<String, String>> iterator() {
+				return records.iterator();
+			}
+
+			@Override
+			public boolean isEmpty() {
+				return records.isEmpty();
+			}
+		};
+	}
+
+	static MessageAndMetadata messageAndMetadata(final String topic, final int partition, final long offset) {
+		return new MessageAndMetadata() {
+			@Override
+			public String topic() {
+				return topic;
+			}
+
+			@Override
+			public int partition() {
+				return partition;
+			}
+
+			@Override
+			public long offset() {
+				return offset;
+			}
+		};
+	}
+}
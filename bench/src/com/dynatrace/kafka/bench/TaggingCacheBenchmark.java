@@ -0,0 +1,79 @@
+package com.dynatrace.kafka.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dynatrace.adk.DynaTraceADKFactory;
+import com.dynatrace.kafka.TaggingCache;
+
+import kafka.consumer.PurePathStarter;
+
+/**
+ * Sending and consuming records in steady state, expected to make no calls to
+ * {@link DynaTraceADKFactory#createTagging()} thanks to {@link TaggingCache}.
+ * The calls per operation are printed after every iteration, run with {@code -prof gc}
+ * for the allocations per operation. Consumed records carry their trace tag within
+ * a header, alternating between two trace tags, so every record starts a PurePath.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dcom.dynatrace.kafka.agent.propagation=HEADER")
+public class TaggingCacheBenchmark {
+
+	private Records.Producer producer;
+	private ProducerRecord producerRecord;
+	private final ConsumerRecord<?, ?>[] consumerRecords = new ConsumerRecord<?, ?>[2];
+	private long operations;
+	private long calls;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		producer = new Records.Producer(Records.recordMetadata("orders", 3, 4711L));
+		producerRecord = Records.producerRecord("orders");
+		for (int i = 0; i < consumerRecords.length; i++) {
+			Records.SingleHeader headers = new Records.SingleHeader();
+			headers.add("dtdTraceTagInfo", ("FW4;1481367847;" + i + ";4;1481367847;0;0").getBytes());
+			consumerRecords[i] = Records.consumerRecord("orders", 3, 1234567L + i, headers);
+		}
+	}
+
+	@Setup(Level.Iteration)
+	public void startCounting() {
+		operations = 0;
+		calls = DynaTraceADKFactory.createTaggingCalls();
+	}
+
+	@TearDown(Level.Iteration)
+	public void printCalls() {
+		long made = DynaTraceADKFactory.createTaggingCalls() - calls;
+		System.out.println("createTagging() calls per operation: " + ((operations == 0) ? 0 : (double) made / operations));
+	}
+
+	@Benchmark
+	public Object send() {
+		operations++;
+		return producer.send(producerRecord, null);
+	}
+
+	@Benchmark
+	public Object consume() {
+		return PurePathStarter.handle(consumerRecords[(int) (operations++ & 1)]);
+	}
+}
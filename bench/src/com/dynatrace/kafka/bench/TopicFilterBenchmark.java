@@ -0,0 +1,83 @@
+package com.dynatrace.kafka.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dynatrace.kafka.TopicFilter;
+
+import kafka.consumer.PurePathStarter;
+
+/**
+ * Sending and consuming records of topics excluded by {@link TopicFilter}, expected to cost
+ * little more than the identity lookup of the topic, compared to records of an included topic.
+ * The patterns configured combine names, prefixes and globs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {
+		"-Dcom.dynatrace.kafka.agent.topics.include=orders*,payments,telemetry.*",
+		"-Dcom.dynatrace.kafka.agent.topics.exclude=__*,*.dlq,telemetry.raw.*" })
+public class TopicFilterBenchmark {
+
+	private Records.Producer producer;
+	private ProducerRecord included;
+	private ProducerRecord excluded;
+	private ProducerRecord internal;
+	private ConsumerRecord<String, String> consumedIncluded;
+	private ConsumerRecord<String, String> consumedExcluded;
+
+	@Setup
+	public void setup() {
+		producer = new Records.Producer(Records.recordMetadata("orders", 3, 4711L));
+		included = Records.producerRecord("orders");
+		excluded = Records.producerRecord("telemetry.raw.cpu");
+		internal = Records.producerRecord("__consumer_offsets");
+		consumedIncluded = Records.consumerRecord("orders", 3, 1234567L, new Records.SingleHeader());
+		consumedExcluded = Records.consumerRecord("telemetry.raw.cpu", 3, 1234567L, new Records.SingleHeader());
+	}
+
+	@Benchmark
+	public boolean isTraced() {
+		return TopicFilter.isTraced(excluded.topic());
+	}
+
+	@Benchmark
+	public Object sendIncluded() {
+		return producer.send(included, null);
+	}
+
+	@Benchmark
+	public Object sendExcluded() {
+		return producer.send(excluded, null);
+	}
+
+	@Benchmark
+	public Object sendInternal() {
+		return producer.send(internal, null);
+	}
+
+	@Benchmark
+	public Object consumeIncluded() {
+		return PurePathStarter.handle(consumedIncluded);
+	}
+
+	@Benchmark
+	public Object consumeExcluded() {
+		return PurePathStarter.handle(consumedExcluded);
+	}
+}
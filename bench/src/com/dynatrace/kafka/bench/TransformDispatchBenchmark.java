@@ -0,0 +1,80 @@
+package com.dynatrace.kafka.bench;
+
+import java.lang.instrument.IllegalClassFormatException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dynatrace.kafka.KafkaJavaAgent;
+
+/**
+ * The per class overhead of {@code KafkaJavaAgent.transform} for classes which are
+ * not getting transformed, i.e. almost all classes loaded at startup of an application server.
+ * {@link #chain()} replays the comparisons made before transformations were looked up by class name.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformDispatchBenchmark {
+
+	private static final String[] PACKAGES = {
+		"java/lang/", "java/util/concurrent/", "javax/servlet/http/", "sun/reflect/generated/",
+		"org/springframework/beans/factory/support/", "com/ibm/ws/webcontainer/servlet/",
+		"org/eclipse/osgi/internal/loader/", "org/apache/kafka/common/requests/", "kafka/utils/"
+	};
+
+	private static final String[] TARGETS = {
+		"kafka/message/MessageAndOffset", "org/apache/kafka/clients/producer/KafkaProducer",
+		"org/apache/kafka/clients/consumer/KafkaConsumer", "kafka/consumer/ConsumerIterator",
+		"kafka/message/ByteBufferMessageSet", "kafka/api/TopicData", "kafka/api/FetchResponsePartitionData",
+		"org/apache/kafka/clients/consumer/ConsumerRecords$ConcatenatedIterable$1"
+	};
+
+	private final KafkaJavaAgent agent = new KafkaJavaAgent();
+	private final byte[] buffer = new byte[0];
+	private String[] classNames;
+	private int next;
+
+	@Setup
+	public void setup() {
+		classNames = new String[4096];
+		for (int i = 0; i < classNames.length; i++) {
+			// new instances, as the JVM passes a new String for every class
+			classNames[i] = new String(PACKAGES[i % PACKAGES.length] + "GeneratedClass" + i + (i % 7 == 0 ? "$Inner" : ""));
+		}
+	}
+
+	private String nextClassName() {
+		String className = classNames[next];
+		next = (next + 1) & (classNames.length - 1);
+		return new String(className);
+	}
+
+	@Benchmark
+	public byte[] transform() throws IllegalClassFormatException {
+		return agent.transform(null, nextClassName(), null, null, buffer);
+	}
+
+	@Benchmark
+	public int chain() {
+		String className = nextClassName();
+		for (int i = 0; i < TARGETS.length; i++) {
+			if (className.equals(TARGETS[i])) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,143 @@
+package com.dynatrace.kafka.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dynatrace.kafka.BytecodeWeaver;
+import com.dynatrace.kafka.EquinoxClassLoaderHelper;
+
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtField;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+
+/**
+ * The time weaving adds to loading {@code KafkaProducer} and {@code ConsumerRecords$ConcatenatedIterable$1},
+ * comparing both {@code com.dynatrace.kafka.Weaver}s, and to loading {@code ProducerConfig} and
+ * {@code ConsumerConfig} with {@code com.dynatrace.kafka.Instrumentation#INTERCEPTOR} instead.
+ * The classes woven are generated, with {@code methods} additional methods standing in for
+ * the rest of the real class.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WeaverBenchmark {
+
+	private static final String KAFKA_PRODUCER = "org.apache.kafka.clients.producer.KafkaProducer";
+	private static final String CONCATENATED_ITERATOR = "org.apache.kafka.clients.consumer.ConsumerRecords$ConcatenatedIterable$1";
+	private static final String PRODUCER_CONFIG = "org.apache.kafka.clients.producer.ProducerConfig";
+	private static final String CONSUMER_CONFIG = "org.apache.kafka.clients.consumer.ConsumerConfig";
+
+	@Param({ "10", "100" })
+	public int methods;
+
+	private ClassPool classPool;
+	private byte[] kafkaProducer;
+	private byte[] concatenatedIterator;
+	private byte[] producerConfig;
+	private byte[] consumerConfig;
+
+	@Setup
+	public void setup() throws Exception {
+		ClassPool generator = pool();
+		kafkaProducer = generate(generator, KAFKA_PRODUCER,
+				"public java.util.concurrent.Future send(org.apache.kafka.clients.producer.ProducerRecord record, org.apache.kafka.clients.producer.Callback callback) { return null; }");
+		concatenatedIterator = generate(generator, CONCATENATED_ITERATOR,
+				"protected org.apache.kafka.clients.consumer.ConsumerRecord makeNext() { return null; }");
+		producerConfig = generateConfig(generator, PRODUCER_CONFIG);
+		consumerConfig = generateConfig(generator, CONSUMER_CONFIG);
+		classPool = pool();
+	}
+
+	private static ClassPool pool() {
+		ClassPool pool = new ClassPool(true);
+		// the system path of Java 9 and later misses the class path
+		pool.appendClassPath(new ClassClassPath(WeaverBenchmark.class));
+		return pool;
+	}
+
+	private byte[] generate(ClassPool generator, String className, String target) throws Exception {
+		CtClass ctClass = makeClass(generator, className);
+		ctClass.addMethod(CtNewMethod.make(target, ctClass));
+		return toBytecode(ctClass);
+	}
+
+	private byte[] generateConfig(ClassPool generator, String className) throws Exception {
+		CtClass ctClass = makeClass(generator, className);
+		ctClass.addField(CtField.make("private java.util.Map originals;", ctClass));
+		String simpleName = className.substring(className.lastIndexOf('.') + 1);
+		ctClass.addConstructor(CtNewConstructor.make("public " + simpleName + "(java.util.Map props) { originals = props; }", ctClass));
+		ctClass.addConstructor(CtNewConstructor.make("public " + simpleName + "(java.util.Properties props) { this((java.util.Map) props); }", ctClass));
+		return toBytecode(ctClass);
+	}
+
+	private CtClass makeClass(ClassPool generator, String className) throws Exception {
+		CtClass ctClass = generator.makeClass(className);
+		for (int i = 0; i < methods; i++) {
+			ctClass.addField(CtField.make("private long field" + i + ";", ctClass));
+			ctClass.addMethod(CtNewMethod.make("public long method" + i + "(long value) { field" + i + " += value; return field" + i + " * " + i + "L; }", ctClass));
+		}
+		return ctClass;
+	}
+
+	private static byte[] toBytecode(CtClass ctClass) throws Exception {
+		byte[] buffer = ctClass.toBytecode();
+		ctClass.detach();
+		return buffer;
+	}
+
+	private byte[] release(String className, byte[] woven) {
+		// like com.dynatrace.kafka.ClassPools after every transformation
+		CtClass ctClass = classPool.getOrNull(className);
+		if (ctClass != null) {
+			ctClass.detach();
+		}
+		return woven;
+	}
+
+	@Benchmark
+	public byte[] javassistKafkaProducer() {
+		return release(KAFKA_PRODUCER, EquinoxClassLoaderHelper.transformKafkaProducer(classPool, kafkaProducer));
+	}
+
+	@Benchmark
+	public byte[] bytecodeKafkaProducer() {
+		return BytecodeWeaver.transformKafkaProducer(kafkaProducer);
+	}
+
+	@Benchmark
+	public byte[] javassistConcatenatedIterator() {
+		return release(CONCATENATED_ITERATOR, EquinoxClassLoaderHelper.transformConsumerRecordIterator(classPool, concatenatedIterator));
+	}
+
+	@Benchmark
+	public byte[] bytecodeConcatenatedIterator() {
+		return BytecodeWeaver.transformConsumerRecordIterator(concatenatedIterator);
+	}
+
+	@Benchmark
+	public byte[] javassistProducerConfig() {
+		return release(PRODUCER_CONFIG, EquinoxClassLoaderHelper.transformProducerConfig(classPool, producerConfig));
+	}
+
+	@Benchmark
+	public byte[] javassistConsumerConfig() {
+		return release(CONSUMER_CONFIG, EquinoxClassLoaderHelper.transformConsumerConfig(classPool, consumerConfig));
+	}
+}
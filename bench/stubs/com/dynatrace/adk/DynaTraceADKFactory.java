@@ -0,0 +1,33 @@
+package com.dynatrace.adk;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replaces the factory of the Dynatrace ADK for benchmarks, so they run without
+ * a Dynatrace Agent. Every {@link Tagging} handed out considers the tags it
+ * produces valid and counts the calls made to this factory.
+ */
+public class DynaTraceADKFactory {
+
+	private static final AtomicLong CREATE_TAGGING_CALLS = new AtomicLong();
+
+	private static final Tagging TAGGING = new StubTagging();
+
+	public static void initialize() {
+	}
+
+	public static final Tagging createTagging() {
+		CREATE_TAGGING_CALLS.incrementAndGet();
+		return TAGGING;
+	}
+
+	public static void uninitialize() {
+	}
+
+	/**
+	 * @return the number of calls to {@link #createTagging()} so far
+	 */
+	public static long createTaggingCalls() {
+		return CREATE_TAGGING_CALLS.get();
+	}
+}
@@ -0,0 +1,78 @@
+package com.dynatrace.adk;
+
+/**
+ * A {@link Tagging} which behaves like being called within a PurePath.
+ * Like the real ADK, {@link #getTag()} hands out a new array on every call.
+ */
+final class StubTagging implements Tagging {
+
+	private static final byte[] TAG = "FW4;1481367847;0;4;1481367847;0;0".getBytes();
+
+	@Override
+	public byte[] getTag() {
+		return TAG.clone();
+	}
+
+	@Override
+	public String getTagAsString() {
+		return new String(TAG);
+	}
+
+	@Override
+	public void setTag(byte[] tag) {
+	}
+
+	@Override
+	public void setTagFromString(String tag) {
+	}
+
+	@Override
+	public boolean isTagValid(Object tag) {
+		return tag != null;
+	}
+
+	@Override
+	public void linkClientPurePath(boolean async) {
+	}
+
+	@Override
+	public void linkClientPurePath(boolean async, Object customTag) {
+	}
+
+	@Override
+	public void startServerPurePath() {
+	}
+
+	@Override
+	public void endServerPurePath() {
+	}
+
+	@Override
+	public Runnable createServerPathRunnable(Runnable runnable) {
+		return runnable;
+	}
+
+	@Override
+	public String convertTagToString(byte[] tag) {
+		return new String(tag);
+	}
+
+	@Override
+	public byte[] convertStringToTag(String tag) {
+		return tag.getBytes();
+	}
+
+	@Override
+	public CustomTag createCustomTag(byte[] tag, byte[] prevTag) {
+		return null;
+	}
+
+	@Override
+	public CustomTag createCustomTag(byte[] tag) {
+		return null;
+	}
+
+	@Override
+	public void setCustomTag(byte[] tag) {
+	}
+}
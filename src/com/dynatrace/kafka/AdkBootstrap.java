@@ -0,0 +1,129 @@
+package com.dynatrace.kafka;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.dynatrace.adk.DynaTraceADKFactory;
+
+/**
+ * Initializes the Dynatrace ADK and the tagging engine on a thread of its own,
+ * so no application thread sending or consuming records pays for it.<br />
+ * <br />
+ * Initialization starts right after {@link KafkaJavaAgent#premain(String, java.lang.instrument.Instrumentation)}
+ * unless {@link #PROPERTY_ADK_INIT_EAGER} is {@code false}, in which case it starts once
+ * the first Kafka class gets transformed. Until it has completed the entry points
+ * called by Kafka pass records through untouched, see {@link #isReady()}.
+ */
+public final class AdkBootstrap {
+
+	/**
+	 * System Property deciding whether initialization starts right after the Agent got
+	 * loaded ({@code true}) or once the first Kafka class gets transformed ({@code false}).
+	 * Defaults to {@code true}.
+	 */
+	private static final String PROPERTY_ADK_INIT_EAGER = "com.dynatrace.kafka.agent.adk.init.eager";
+
+	/**
+	 * Loaded by the tagging engine, not packaged with this Agent.
+	 */
+	private static final String KAFKA_CALLBACK = "org.apache.kafka.clients.producer.Callback";
+
+	private static final String TAGGING_ENGINE = "org.apache.kafka.clients.producer.KafkaProducerTaggingEngine";
+
+	private static final AtomicBoolean STARTED = new AtomicBoolean();
+
+	private static volatile boolean ready;
+
+	private static volatile long initTimeNanos;
+
+	private AdkBootstrap() {
+		// prevent instantiation
+	}
+
+	/**
+	 * @return {@code true} if initialization should start right after the Agent got loaded
+	 */
+	static boolean isEager() {
+		return AgentProperties.getBoolean(PROPERTY_ADK_INIT_EAGER, true);
+	}
+
+	/**
+	 * Starts initialization on a daemon thread, at most once.
+	 */
+	public static void start() {
+		if (!STARTED.compareAndSet(false, true)) {
+			return;
+		}
+		Thread thread = new Thread("dynatrace-kafka-agent-init") {
+			@Override
+			public void run() {
+				initialize();
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private static void initialize() {
+		long start = System.nanoTime();
+		try {
+			DynaTraceADKFactory.initialize();
+		} catch (Throwable t) {
+			Logging.error("initialization of the Dynatrace ADK failed - records are passed through untraced", t);
+			return;
+		}
+		initializeTaggingEngine();
+		initTimeNanos = System.nanoTime() - start;
+		ready = true;
+		Logging.info("Dynatrace ADK initialized within {} ms", Long.valueOf(TimeUnit.NANOSECONDS.toMillis(initTimeNanos)));
+	}
+
+	/**
+	 * Starts the workers of the tagging engine, unless Kafka is not visible to this
+	 * Agent yet. In that case the engine is started by the first record acknowledged,
+	 * which happens on a thread of the Kafka producer.
+	 */
+	private static void initializeTaggingEngine() {
+		ClassLoader loader = AdkBootstrap.class.getClassLoader();
+		try {
+			Class.forName(KAFKA_CALLBACK, false, loader);
+		} catch (ClassNotFoundException e) {
+			Logging.fine("Kafka not visible yet - tagging engine gets started on demand");
+			return;
+		}
+		try {
+			Class.forName(TAGGING_ENGINE, true, loader).getMethod("getInstance").invoke(null);
+		} catch (Throwable t) {
+			Logging.error("starting the tagging engine failed", t);
+		}
+	}
+
+	/**
+	 * Called first by every entry point, so the calling thread is never the one initializing.
+	 * Starts initialization in case neither the Agent nor a transformation did, e.g. for
+	 * classes woven offline.
+	 *
+	 * @return {@code true} once the Dynatrace ADK is initialized and records may get traced
+	 */
+	public static boolean isReady() {
+		if (ready) {
+			return true;
+		}
+		start();
+		return false;
+	}
+
+	/**
+	 * @return {@code true} once initialization has completed, without starting it
+	 */
+	static boolean isCompleted() {
+		return ready;
+	}
+
+	/**
+	 * @return the time initialization took in nanoseconds, {@code 0} until completed
+	 */
+	static long initTimeNanos() {
+		return initTimeNanos;
+	}
+}
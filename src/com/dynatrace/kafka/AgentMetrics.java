@@ -0,0 +1,368 @@
+package com.dynatrace.kafka;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The metrics this Agent keeps about its own overhead.<br />
+ * <br />
+ * Updating a metric never blocks, counters are {@link StripedCounter}s and durations
+ * are kept in {@link LatencyHistogram}s. The metrics are exposed via JMX and
+ * optionally logged out periodically, see {@link #PROPERTY_METRICS_LOG_INTERVAL}.
+ */
+public final class AgentMetrics implements AgentMetricsMBean {
+
+	/**
+	 * System Property for the number of seconds between two log outputs of all metrics
+	 * with {@code Level#INFO}. Defaults to {@code 0}, which disables the log output.
+	 */
+	private static final String PROPERTY_METRICS_LOG_INTERVAL = "com.dynatrace.kafka.agent.metrics.log.interval";
+
+	private static final String OBJECT_NAME = "com.dynatrace.kafka:type=AgentMetrics";
+
+	/**
+	 * A bounded queue owned by some other component, reporting its backpressure.
+	 */
+	public static interface Queue {
+
+		String name();
+
+		int size();
+
+		int capacity();
+
+		/**
+		 * @return the number of elements rejected because the queue was full
+		 */
+		long dropped();
+
+		/**
+		 * @return the number of elements taken from the queue and processed
+		 */
+		long processed();
+
+	}
+
+	/** Sent records the trace tag of the sending thread has been captured for. */
+	public static final StripedCounter TAGS_CAPTURED = new StripedCounter();
+
+	/** Sent records which were not sent within a PurePath. */
+	public static final StripedCounter TAGS_INVALID = new StripedCounter();
+
+	/** Sent records the {@link Sampler} decided not to trace. */
+	public static final StripedCounter TAGS_SAMPLED_OUT = new StripedCounter();
+
+	/**
+	 * Acknowledged records the {@link Sampler} decided not to trace with {@link Propagation#MQ}, after
+	 * the client side of their link had been created on the sending thread already. No MQ message
+	 * gets put for them, so their link stays without a server side.
+	 */
+	public static final StripedCounter TAGS_UNMATCHED = new StripedCounter();
+
+	/** Acknowledged records which did not get linked because of the {@link OverflowPolicy}. */
+	public static final StripedCounter TAGS_DROPPED = new StripedCounter();
+
+	/** Acknowledged records which got linked by the tagging engine. */
+	public static final StripedCounter TAGS_LINKED = new StripedCounter();
+
+	/** Acknowledged records not linked because the tagging engine has been stopped, e.g. by the JVM shutdown. */
+	public static final StripedCounter TAGS_LOST = new StripedCounter();
+
+	/** Worker threads of the tagging engine restarted after terminating unexpectedly. */
+	public static final StripedCounter WORKER_RESTARTS = new StripedCounter();
+
+	/** Records sent or consumed before {@link AdkBootstrap} completed, passed through untraced. */
+	public static final StripedCounter RECORDS_NOT_READY = new StripedCounter();
+
+	/** Records sent or consumed which the {@link TopicFilter} excluded, passed through untraced. */
+	public static final StripedCounter RECORDS_FILTERED = new StripedCounter();
+
+	/** Consumed records handled by {@code kafka.consumer.PurePathStarter}. */
+	public static final StripedCounter RECORDS_CONSUMED = new StripedCounter();
+
+	/** PurePaths started for consumed records carrying a trace tag. */
+	public static final StripedCounter CONSUMER_PURE_PATHS_STARTED = new StripedCounter();
+
+	/** Lookups of {@link DestinationCache} finding the topic. */
+	public static final StripedCounter DESTINATION_CACHE_HITS = new StripedCounter();
+
+	/** Lookups of {@link DestinationCache} creating a new destination. */
+	public static final StripedCounter DESTINATION_CACHE_MISSES = new StripedCounter();
+
+	/** Destinations evicted from {@link DestinationCache} for making room for another topic. */
+	public static final StripedCounter DESTINATION_CACHE_EVICTIONS = new StripedCounter();
+
+	/** The time between sending a traced record and its acknowledgement. */
+	public static final LatencyHistogram ACK_LATENCY = new LatencyHistogram();
+
+	/** The time the tagging engine spends on linking an acknowledged record. */
+	public static final LatencyHistogram LINK_LATENCY = new LatencyHistogram();
+
+	private static final ConcurrentMap<String, LatencyHistogram> TRANSFORMATIONS = new ConcurrentHashMap<>();
+
+	private static final AtomicBoolean STARTED = new AtomicBoolean();
+
+	private static volatile Queue[] queues = new Queue[0];
+
+	private AgentMetrics() {
+	}
+
+	/**
+	 * @param queues the queues of the tagging engine, one per worker
+	 */
+	public static void setQueues(Queue[] queues) {
+		AgentMetrics.queues = queues.clone();
+	}
+
+	/**
+	 * @param className the name of a transformed class
+	 *
+	 * @return the {@link LatencyHistogram} of the time spent on transforming the given class
+	 */
+	public static LatencyHistogram transformation(String className) {
+		LatencyHistogram histogram = TRANSFORMATIONS.get(className);
+		if (histogram != null) {
+			return histogram;
+		}
+		histogram = new LatencyHistogram();
+		LatencyHistogram existing = TRANSFORMATIONS.putIfAbsent(className, histogram);
+		if (existing != null) {
+			return existing;
+		}
+		return histogram;
+	}
+
+	/**
+	 * Registers the MBean and starts the periodic log output, at most once.<br />
+	 * <br />
+	 * Happens on a separate daemon thread, so neither the calling thread nor the
+	 * JVM startup has to wait for the platform MBean server.
+	 */
+	public static void start() {
+		if (!STARTED.compareAndSet(false, true)) {
+			return;
+		}
+		Thread thread = new Thread("dynatrace-kafka-agent-metrics") {
+			@Override
+			public void run() {
+				register();
+				long interval = AgentProperties.getLong(PROPERTY_METRICS_LOG_INTERVAL, 0);
+				if (interval <= 0) {
+					return;
+				}
+				while (true) {
+					try {
+						TimeUnit.SECONDS.sleep(interval);
+					} catch (InterruptedException e) {
+						return;
+					}
+					if (Logging.isInfoEnabled()) {
+						Logging.info(new AgentMetrics().dump());
+					}
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private static void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(new AgentMetrics(), name);
+			}
+		} catch (Throwable t) {
+			Logging.error("registration of MBean " + OBJECT_NAME + " failed", t);
+		}
+	}
+
+	@Override
+	public long getTagsCaptured() {
+		return TAGS_CAPTURED.sum();
+	}
+
+	@Override
+	public long getTagsInvalid() {
+		return TAGS_INVALID.sum();
+	}
+
+	@Override
+	public long getTagsSampledOut() {
+		return TAGS_SAMPLED_OUT.sum();
+	}
+
+	@Override
+	public long getTagsUnmatched() {
+		return TAGS_UNMATCHED.sum();
+	}
+
+	@Override
+	public long getTagsDropped() {
+		return TAGS_DROPPED.sum();
+	}
+
+	@Override
+	public long getTagsLinked() {
+		return TAGS_LINKED.sum();
+	}
+
+	@Override
+	public long getTagsLost() {
+		return TAGS_LOST.sum();
+	}
+
+	@Override
+	public long getWorkerRestarts() {
+		return WORKER_RESTARTS.sum();
+	}
+
+	@Override
+	public long getRecordsNotReady() {
+		return RECORDS_NOT_READY.sum();
+	}
+
+	@Override
+	public long getRecordsFiltered() {
+		return RECORDS_FILTERED.sum();
+	}
+
+	@Override
+	public boolean isAdkReady() {
+		return AdkBootstrap.isCompleted();
+	}
+
+	@Override
+	public long getAdkInitTime() {
+		return AdkBootstrap.initTimeNanos() / 1000;
+	}
+
+	@Override
+	public long getQueueDepth() {
+		long depth = 0;
+		for (Queue queue : queues) {
+			depth += queue.size();
+		}
+		return depth;
+	}
+
+	@Override
+	public String[] getQueues() {
+		Queue[] current = queues;
+		String[] result = new String[current.length];
+		for (int i = 0; i < current.length; i++) {
+			Queue queue = current[i];
+			result[i] = queue.name() + ": depth=" + queue.size() + " capacity=" + queue.capacity() + " dropped=" + queue.dropped() + " processed=" + queue.processed();
+		}
+		return result;
+	}
+
+	@Override
+	public long getAckLatencyP50() {
+		return ACK_LATENCY.percentile(50) / 1000;
+	}
+
+	@Override
+	public long getAckLatencyP99() {
+		return ACK_LATENCY.percentile(99) / 1000;
+	}
+
+	@Override
+	public long getAckLatencyMax() {
+		return ACK_LATENCY.max() / 1000;
+	}
+
+	@Override
+	public long getLinkLatencyP99() {
+		return LINK_LATENCY.percentile(99) / 1000;
+	}
+
+	@Override
+	public long getRecordsConsumed() {
+		return RECORDS_CONSUMED.sum();
+	}
+
+	@Override
+	public long getConsumerPurePathsStarted() {
+		return CONSUMER_PURE_PATHS_STARTED.sum();
+	}
+
+	@Override
+	public long getDestinationCacheHits() {
+		return DESTINATION_CACHE_HITS.sum();
+	}
+
+	@Override
+	public long getDestinationCacheMisses() {
+		return DESTINATION_CACHE_MISSES.sum();
+	}
+
+	@Override
+	public long getDestinationCacheEvictions() {
+		return DESTINATION_CACHE_EVICTIONS.sum();
+	}
+
+	@Override
+	public int getDestinationCacheSize() {
+		return DestinationCache.size();
+	}
+
+	@Override
+	public String[] getTransformationTimes() {
+		Map<String, LatencyHistogram> transformations = new TreeMap<>(TRANSFORMATIONS);
+		String[] times = new String[transformations.size()];
+		int i = 0;
+		for (Map.Entry<String, LatencyHistogram> entry : transformations.entrySet()) {
+			times[i++] = entry.getKey() + ": " + entry.getValue();
+		}
+		return times;
+	}
+
+	@Override
+	public int getClassPools() {
+		return ClassPools.size();
+	}
+
+	@Override
+	public String dump() {
+		StringBuilder sb = new StringBuilder("metrics");
+		sb.append(" tagsCaptured=").append(getTagsCaptured());
+		sb.append(" tagsInvalid=").append(getTagsInvalid());
+		sb.append(" tagsSampledOut=").append(getTagsSampledOut());
+		sb.append(" tagsUnmatched=").append(getTagsUnmatched());
+		sb.append(" tagsDropped=").append(getTagsDropped());
+		sb.append(" tagsLinked=").append(getTagsLinked());
+		sb.append(" tagsLost=").append(getTagsLost());
+		sb.append(" workerRestarts=").append(getWorkerRestarts());
+		sb.append(" recordsNotReady=").append(getRecordsNotReady());
+		sb.append(" recordsFiltered=").append(getRecordsFiltered());
+		sb.append(" adkReady=").append(isAdkReady());
+		sb.append(" adkInitTime=").append(getAdkInitTime());
+		sb.append(" queueDepth=").append(getQueueDepth());
+		for (String queue : getQueues()) {
+			sb.append(" queue=[").append(queue).append(']');
+		}
+		sb.append(" recordsConsumed=").append(getRecordsConsumed());
+		sb.append(" consumerPurePathsStarted=").append(getConsumerPurePathsStarted());
+		sb.append(" destinationCacheHits=").append(getDestinationCacheHits());
+		sb.append(" destinationCacheMisses=").append(getDestinationCacheMisses());
+		sb.append(" destinationCacheEvictions=").append(getDestinationCacheEvictions());
+		sb.append(" destinationCacheSize=").append(getDestinationCacheSize());
+		sb.append(" ackLatency=[").append(ACK_LATENCY).append(']');
+		sb.append(" linkLatency=[").append(LINK_LATENCY).append(']');
+		for (String time : getTransformationTimes()) {
+			sb.append(" transformation=[").append(time).append(']');
+		}
+		sb.append(" classPools=").append(getClassPools());
+		return sb.toString();
+	}
+}
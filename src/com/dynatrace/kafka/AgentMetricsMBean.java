@@ -0,0 +1,64 @@
+package com.dynatrace.kafka;
+
+/**
+ * JMX view of {@link AgentMetrics}, registered as {@code com.dynatrace.kafka:type=AgentMetrics}.<br />
+ * <br />
+ * Durations are reported in microseconds.
+ */
+public interface AgentMetricsMBean {
+
+	long getTagsCaptured();
+
+	long getTagsInvalid();
+
+	long getTagsSampledOut();
+
+	long getTagsUnmatched();
+
+	long getTagsDropped();
+
+	long getTagsLinked();
+
+	long getTagsLost();
+
+	long getWorkerRestarts();
+
+	long getRecordsNotReady();
+
+	long getRecordsFiltered();
+
+	boolean isAdkReady();
+
+	long getAdkInitTime();
+
+	long getQueueDepth();
+
+	String[] getQueues();
+
+	long getAckLatencyP50();
+
+	long getAckLatencyP99();
+
+	long getAckLatencyMax();
+
+	long getLinkLatencyP99();
+
+	long getRecordsConsumed();
+
+	long getConsumerPurePathsStarted();
+
+	long getDestinationCacheHits();
+
+	long getDestinationCacheMisses();
+
+	long getDestinationCacheEvictions();
+
+	int getDestinationCacheSize();
+
+	String[] getTransformationTimes();
+
+	int getClassPools();
+
+	String dump();
+
+}
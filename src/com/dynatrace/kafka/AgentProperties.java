@@ -0,0 +1,147 @@
+package com.dynatrace.kafka;
+
+/**
+ * Helper class for reading the System Properties configuring this Agent.<br />
+ * <br />
+ * Invalid values are reported via {@link Logging#warn(String)} and replaced
+ * by the given default value.
+ */
+public final class AgentProperties {
+
+	private AgentProperties() {
+		// prevent instantiation
+	}
+
+	/**
+	 * Resolves the System Property with the given {@code name}.
+	 *
+	 * @param name the name of the System Property
+	 * @param defaultValue the value to return if the System Property is not set
+	 *
+	 * @return the trimmed value of the System Property or {@code defaultValue}
+	 */
+	public static String getString(String name, String defaultValue) {
+		String value = System.getProperty(name);
+		if (value == null) {
+			return defaultValue;
+		}
+		value = value.trim();
+		if (value.isEmpty()) {
+			return defaultValue;
+		}
+		return value;
+	}
+
+	/**
+	 * Resolves the System Property with the given {@code name} as {@code int}.
+	 *
+	 * @param name the name of the System Property
+	 * @param defaultValue the value to return if the System Property is not set or invalid
+	 *
+	 * @return the resolved value
+	 */
+	public static int getInt(String name, int defaultValue) {
+		String value = getString(name, null);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			invalid(name, value, String.valueOf(defaultValue));
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Resolves the System Property with the given {@code name} as {@code long}.
+	 *
+	 * @param name the name of the System Property
+	 * @param defaultValue the value to return if the System Property is not set or invalid
+	 *
+	 * @return the resolved value
+	 */
+	public static long getLong(String name, long defaultValue) {
+		String value = getString(name, null);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			invalid(name, value, String.valueOf(defaultValue));
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Resolves the System Property with the given {@code name} as {@code double}.
+	 *
+	 * @param name the name of the System Property
+	 * @param defaultValue the value to return if the System Property is not set or invalid
+	 *
+	 * @return the resolved value
+	 */
+	public static double getDouble(String name, double defaultValue) {
+		String value = getString(name, null);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			invalid(name, value, String.valueOf(defaultValue));
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Resolves the System Property with the given {@code name} as {@code boolean}.
+	 *
+	 * @param name the name of the System Property
+	 * @param defaultValue the value to return if the System Property is not set or invalid
+	 *
+	 * @return the resolved value
+	 */
+	public static boolean getBoolean(String name, boolean defaultValue) {
+		String value = getString(name, null);
+		if (value == null) {
+			return defaultValue;
+		}
+		if ("true".equalsIgnoreCase(value)) {
+			return true;
+		}
+		if ("false".equalsIgnoreCase(value)) {
+			return false;
+		}
+		invalid(name, value, String.valueOf(defaultValue));
+		return defaultValue;
+	}
+
+	/**
+	 * Resolves the System Property with the given {@code name} as constant of the given {@code enum}.
+	 * The value of the System Property is not case sensitive.
+	 *
+	 * @param name the name of the System Property
+	 * @param type the {@code enum} to resolve the constant from
+	 * @param defaultValue the value to return if the System Property is not set or invalid
+	 *
+	 * @return the resolved value
+	 */
+	public static <E extends Enum<E>> E getEnum(String name, Class<E> type, E defaultValue) {
+		String value = getString(name, null);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Enum.valueOf(type, value.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			invalid(name, value, String.valueOf(defaultValue));
+			return defaultValue;
+		}
+	}
+
+	private static void invalid(String name, String value, String defaultValue) {
+		Logging.warn("Invalid value '{}' for System Property '{}' - falling back to '{}'", value, name, defaultValue);
+	}
+}
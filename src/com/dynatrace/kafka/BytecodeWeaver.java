@@ -0,0 +1,113 @@
+package com.dynatrace.kafka;
+
+/**
+ * Counterparts of the method wrapping transformations of {@link EquinoxClassLoaderHelper},
+ * which modify the class file directly via {@link ClassFileRewriter} instead of
+ * copying method bodies of stub classes with Java Assist, see {@link Weaver#BYTECODE}.<br />
+ * <br />
+ * The emitted byte code is the byte code of the methods within the stub classes.
+ */
+public final class BytecodeWeaver {
+
+	private static final String PRODUCER_RECORD = "Lorg/apache/kafka/clients/producer/ProducerRecord;";
+	private static final String CALLBACK = "Lorg/apache/kafka/clients/producer/Callback;";
+	private static final String CONSUMER_RECORD = "Lorg/apache/kafka/clients/consumer/ConsumerRecord;";
+	private static final String MESSAGE_AND_METADATA = "Lkafka/message/MessageAndMetadata;";
+	private static final String PURE_PATH_STARTER = "kafka/consumer/PurePathStarter";
+
+	private BytecodeWeaver() {
+		// prevent instantiation
+	}
+
+	/**
+	 * Wraps {@code KafkaProducer.send(ProducerRecord, Callback)} like {@code KafkaProducerStub.send}.
+	 *
+	 * @param buffer the byte code of the class
+	 *
+	 * @return the modified byte code
+	 */
+	public static byte[] transformKafkaProducer(byte[] buffer) {
+		Logging.info("intercepted loading of org.apache.kafka.clients.producer.KafkaProducer");
+		return wrap(buffer, "org.apache.kafka.clients.producer.KafkaProducer", "send", "(" + PRODUCER_RECORD + CALLBACK + ")Ljava/util/concurrent/Future;", new ClassFileRewriter.Wrapper() {
+			@Override
+			public void emit(ClassFileRewriter.Code code) {
+				// callback = KafkaProducerTaggingEngine.handle(record, callback);
+				code.aload(1);
+				code.aload(2);
+				code.invokestatic("org/apache/kafka/clients/producer/KafkaProducerTaggingEngine", "handle", "(" + PRODUCER_RECORD + CALLBACK + ")" + CALLBACK);
+				code.astore(2);
+				// try { return send_dtd_orig(record, callback); }
+				int start = code.position();
+				code.aload(0);
+				code.aload(1);
+				code.aload(2);
+				code.invokeOriginal();
+				code.returnValue();
+				// catch (Throwable t) { KafkaProducerTaggingEngine.failed(callback); throw t; }
+				code.handler(start, code.position(), null);
+				code.astore(3);
+				code.aload(2);
+				code.invokestatic("org/apache/kafka/clients/producer/KafkaProducerTaggingEngine", "failed", "(" + CALLBACK + ")V");
+				code.aload(3);
+				code.athrow();
+			}
+		});
+	}
+
+	/**
+	 * Wraps {@code ConsumerRecords$ConcatenatedIterable$1.makeNext()} like
+	 * {@code ConsumerRecordsDollarConcatenatedIterableDollar1Stub.makeNext}.
+	 *
+	 * @param buffer the byte code of the class
+	 *
+	 * @return the modified byte code
+	 */
+	public static byte[] transformConsumerRecordIterator(byte[] buffer) {
+		Logging.info("intercepted loading of org.apache.kafka.clients.consumer.ConsumerRecords$ConcatenatedIterable$1");
+		return wrap(buffer, "org.apache.kafka.clients.consumer.ConsumerRecords$ConcatenatedIterable$1", "makeNext", "()" + CONSUMER_RECORD, new ClassFileRewriter.Wrapper() {
+			@Override
+			public void emit(ClassFileRewriter.Code code) {
+				// return PurePathStarter.handle(makeNext_dtd_orig());
+				code.aload(0);
+				code.invokeOriginal();
+				code.invokestatic(PURE_PATH_STARTER, "handle", "(" + CONSUMER_RECORD + ")" + CONSUMER_RECORD);
+				code.returnValue();
+			}
+		});
+	}
+
+	/**
+	 * Wraps {@code kafka.consumer.ConsumerIterator.next()} like {@code ConsumerIteratorStub.next}.
+	 *
+	 * @param buffer the byte code of the class
+	 *
+	 * @return the modified byte code
+	 */
+	public static byte[] transformConsumerIterator(byte[] buffer) {
+		Logging.info("intercepted loading of kafka.consumer.ConsumerIterator");
+		return wrap(buffer, "kafka.consumer.ConsumerIterator", "next", "()" + MESSAGE_AND_METADATA, new ClassFileRewriter.Wrapper() {
+			@Override
+			public void emit(ClassFileRewriter.Code code) {
+				// return PurePathStarter.handle(next_dtd_orig());
+				code.aload(0);
+				code.invokeOriginal();
+				code.invokestatic(PURE_PATH_STARTER, "handle", "(" + MESSAGE_AND_METADATA + ")" + MESSAGE_AND_METADATA);
+				code.returnValue();
+			}
+		});
+	}
+
+	private static byte[] wrap(byte[] buffer, String className, String methodName, String descriptor, ClassFileRewriter.Wrapper wrapper) {
+		try {
+			byte[] woven = ClassFileRewriter.wrap(buffer, methodName, descriptor, wrapper);
+			if (woven != buffer) {
+				Logging.info("  wrapping method {}", methodName);
+			}
+			return woven;
+		} catch (Throwable t) {
+			// even if everything fails we NEED to return byte code - by default the original byte code
+			Logging.error("transformation of " + className + " failed", t);
+			return buffer;
+		}
+	}
+}
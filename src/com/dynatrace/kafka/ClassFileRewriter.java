@@ -0,0 +1,595 @@
+package com.dynatrace.kafka;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Wraps a single method of a class file without parsing it into an object model.<br />
+ * <br />
+ * The class file is read once, remembering where the constant pool and the methods
+ * are located. The wrapped method gets renamed to {@code <name>_dtd_orig} and a new
+ * method with the original name, descriptor, access flags and declared exceptions is
+ * added, whose straight line byte code is emitted by a {@link Wrapper}. As new
+ * constants are appended to the end of the constant pool, all other bytes are
+ * copied unchanged. Without any branches the new method only needs a stack map
+ * frame per exception handler, whose local variables are still the parameters.
+ */
+final class ClassFileRewriter {
+
+	/**
+	 * The suffix appended to the name of a wrapped method, the same the Java Assist based transformations use.
+	 */
+	static final String ORIGINAL_SUFFIX = "_dtd_orig";
+
+	private static final byte[] WOVEN_METHOD_MARKER = ascii(ORIGINAL_SUFFIX);
+
+	private static final byte[] AGENT_PACKAGE_MARKER = ascii("com/dynatrace/kafka/");
+
+	/**
+	 * Referred to by {@code KafkaConsumer.poll} in batch mode, which is enriched instead of wrapped.
+	 */
+	private static final byte[] PURE_PATH_STARTER_MARKER = ascii("kafka/consumer/PurePathStarter");
+
+	private static final int ACC_PRIVATE = 0x0002;
+	private static final int ACC_STATIC = 0x0008;
+	private static final int ACC_BRIDGE = 0x0040;
+	private static final int ACC_NATIVE = 0x0100;
+	private static final int ACC_INTERFACE = 0x0200;
+	private static final int ACC_ABSTRACT = 0x0400;
+	private static final int ACC_SYNTHETIC = 0x1000;
+
+	private static final int CONSTANT_UTF8 = 1;
+	private static final int CONSTANT_LONG = 5;
+	private static final int CONSTANT_DOUBLE = 6;
+	private static final int CONSTANT_CLASS = 7;
+	private static final int CONSTANT_METHODREF = 10;
+	private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+	private static final int ALOAD = 0x19;
+	private static final int ALOAD_0 = 0x2a;
+	private static final int ASTORE = 0x3a;
+	private static final int ASTORE_0 = 0x4b;
+	private static final int ATHROW = 0xbf;
+	private static final int INVOKEVIRTUAL = 0xb6;
+	private static final int INVOKESPECIAL = 0xb7;
+	private static final int INVOKESTATIC = 0xb8;
+
+	private static byte[] ascii(String s) {
+		byte[] bytes = new byte[s.length()];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) s.charAt(i);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Emits the body of the method replacing the wrapped one.
+	 */
+	interface Wrapper {
+
+		/**
+		 * @param code the {@link Code} to emit the body into
+		 */
+		void emit(Code code);
+	}
+
+	/**
+	 * The byte code of the method replacing the wrapped one. Keeps track of the
+	 * operand stack depth and adds the constants it refers to.
+	 */
+	static final class Code {
+
+		private final ClassFileRewriter rewriter;
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final ByteArrayOutputStream handlers = new ByteArrayOutputStream();
+		private final ByteArrayOutputStream frames = new ByteArrayOutputStream();
+		private int handlerCount;
+		private int lastFrame = -1;
+		private int stack;
+		private int maxStack;
+		private int maxLocals;
+
+		private Code(ClassFileRewriter rewriter) {
+			this.rewriter = rewriter;
+			this.maxLocals = 1 + argumentSlots(rewriter.descriptor);
+		}
+
+		/**
+		 * @return the index of the next instruction, for {@link #handler(int, int, String)}
+		 */
+		int position() {
+			return bytes.size();
+		}
+
+		/**
+		 * Pushes the reference held by the given local variable.
+		 *
+		 * @param index the index of the local variable, {@code 0} being {@code this}
+		 */
+		void aload(int index) {
+			if (index <= 3) {
+				bytes.write(ALOAD_0 + index);
+			} else {
+				bytes.write(ALOAD);
+				bytes.write(index);
+			}
+			push(1);
+		}
+
+		/**
+		 * Pops a reference into the given local variable.
+		 *
+		 * @param index the index of the local variable, {@code 0} being {@code this}
+		 */
+		void astore(int index) {
+			if (index <= 3) {
+				bytes.write(ASTORE_0 + index);
+			} else {
+				bytes.write(ASTORE);
+				bytes.write(index);
+			}
+			stack--;
+			maxLocals = Math.max(maxLocals, index + 1);
+		}
+
+		/**
+		 * Throws the {@link Throwable} on top of the operand stack.
+		 */
+		void athrow() {
+			bytes.write(ATHROW);
+			stack = 0;
+		}
+
+		/**
+		 * Starts an exception handler at the next instruction, which finds the caught
+		 * {@link Throwable} as the only value on the operand stack. The local variables
+		 * need to hold the parameters unchanged when the handler is entered.
+		 *
+		 * @param start the index of the first instruction covered, see {@link #position()}
+		 * @param end the index after the last instruction covered
+		 * @param catchType the internal name of the class of the exceptions caught, {@code null} for all
+		 */
+		void handler(int start, int end, String catchType) {
+			int position = position();
+			int classIndex = rewriter.classref((catchType == null) ? "java/lang/Throwable" : catchType);
+			writeShort(handlers, start);
+			writeShort(handlers, end);
+			writeShort(handlers, position);
+			writeShort(handlers, (catchType == null) ? 0 : classIndex);
+			handlerCount++;
+			// same_locals_1_stack_item_frame, or its extended form for larger offsets
+			int delta = position - lastFrame - 1;
+			if (delta < 64) {
+				frames.write(64 + delta);
+			} else {
+				frames.write(247);
+				writeShort(frames, delta);
+			}
+			// Object_variable_info
+			frames.write(7);
+			writeShort(frames, classIndex);
+			lastFrame = position;
+			stack = 0;
+			push(1);
+		}
+
+		private static void writeShort(ByteArrayOutputStream out, int value) {
+			out.write(value >> 8);
+			out.write(value);
+		}
+
+		/**
+		 * Invokes a static method.
+		 *
+		 * @param owner the internal name of the class declaring the method
+		 * @param name the name of the method
+		 * @param descriptor the descriptor of the method
+		 */
+		void invokestatic(String owner, String name, String descriptor) {
+			invoke(INVOKESTATIC, rewriter.methodref(owner, name, descriptor), descriptor, 0);
+		}
+
+		/**
+		 * Invokes the wrapped method on the references and values on the operand stack.
+		 */
+		void invokeOriginal() {
+			invoke(((rewriter.accessFlags & ACC_PRIVATE) != 0) ? INVOKESPECIAL : INVOKEVIRTUAL, rewriter.originalMethodref, rewriter.descriptor, 1);
+		}
+
+		/**
+		 * Returns the value on top of the operand stack, according to the return type of the wrapped method.
+		 */
+		void returnValue() {
+			char type = rewriter.descriptor.charAt(rewriter.descriptor.indexOf(')') + 1);
+			switch (type) {
+			case 'V':
+				bytes.write(0xb1);
+				break;
+			case 'J':
+				bytes.write(0xad);
+				break;
+			case 'F':
+				bytes.write(0xae);
+				break;
+			case 'D':
+				bytes.write(0xaf);
+				break;
+			case 'L':
+			case '[':
+				bytes.write(0xb0);
+				break;
+			default:
+				bytes.write(0xac);
+				break;
+			}
+		}
+
+		private void invoke(int opcode, int methodref, String descriptor, int receiver) {
+			bytes.write(opcode);
+			bytes.write(methodref >> 8);
+			bytes.write(methodref);
+			stack -= receiver + argumentSlots(descriptor);
+			push(returnSlots(descriptor));
+		}
+
+		private void push(int slots) {
+			stack += slots;
+			maxStack = Math.max(maxStack, stack);
+		}
+	}
+
+	private final byte[] buffer;
+	private final String name;
+	private final String descriptor;
+
+	private final ByteArrayOutputStream constants = new ByteArrayOutputStream();
+	private final DataOutputStream constantsOut = new DataOutputStream(constants);
+	private int constantCount;
+	private int thisClass;
+	private int constantsEnd;
+	private int methodsCount;
+	private int methodsStart;
+	private int methodsEnd;
+	private int methodStart = -1;
+	private int accessFlags;
+	private int nameIndex;
+	private int descriptorIndex;
+	private int exceptionsStart = -1;
+	private int exceptionsLength;
+	private int originalMethodref;
+
+	/**
+	 * @see #wrap(byte[], String, String, Wrapper)
+	 */
+	private ClassFileRewriter(byte[] buffer, String name, String descriptor) {
+		this.buffer = buffer;
+		this.name = name;
+		this.descriptor = descriptor;
+	}
+
+	/**
+	 * Wraps the method with the given name and descriptor.
+	 *
+	 * @param buffer the byte code of the class
+	 * @param name the name of the method to wrap
+	 * @param descriptor the descriptor of the method to wrap
+	 * @param wrapper emitting the body of the method replacing the wrapped one
+	 *
+	 * @return the modified byte code or {@code buffer} if the class does not declare such a
+	 * 		concrete instance method or has been wrapped already
+	 *
+	 * @throws IOException if the class file is malformed
+	 */
+	static byte[] wrap(byte[] buffer, String name, String descriptor, Wrapper wrapper) throws IOException {
+		ClassFileRewriter rewriter = new ClassFileRewriter(buffer, name, descriptor);
+		if (!rewriter.read()) {
+			return buffer;
+		}
+		return rewriter.write(wrapper);
+	}
+
+	/**
+	 * Tells whether a class file has been woven by this Agent before, at runtime or
+	 * offline, by looking for a renamed method or a reference to this Agent.
+	 *
+	 * @param buffer the byte code of the class
+	 *
+	 * @return {@code true} if the class file refers to a woven method or to a class of this Agent
+	 */
+	static boolean isWoven(byte[] buffer) {
+		return contains(buffer, WOVEN_METHOD_MARKER) || contains(buffer, AGENT_PACKAGE_MARKER) || contains(buffer, PURE_PATH_STARTER_MARKER);
+	}
+
+	private static boolean contains(byte[] buffer, byte[] marker) {
+		int last = buffer.length - marker.length;
+		outer: for (int i = 0; i <= last; i++) {
+			for (int j = 0; j < marker.length; j++) {
+				if (buffer[i + j] != marker[j]) {
+					continue outer;
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Locates the constant pool, the methods and the method to wrap.
+	 *
+	 * @return {@code false} if there is nothing to wrap
+	 */
+	private boolean read() throws IOException {
+		if (readInt(0) != 0xCAFEBABE) {
+			throw new IOException("not a class file");
+		}
+		constantCount = readUnsignedShort(8);
+		int[] utf8Offsets = new int[constantCount];
+		int offset = 10;
+		for (int index = 1; index < constantCount; index++) {
+			int tag = buffer[offset] & 0xFF;
+			switch (tag) {
+			case CONSTANT_UTF8:
+				utf8Offsets[index] = offset + 1;
+				offset += 3 + readUnsignedShort(offset + 1);
+				break;
+			case CONSTANT_LONG:
+			case CONSTANT_DOUBLE:
+				offset += 9;
+				index++;
+				break;
+			case 3: // Integer
+			case 4: // Float
+			case 9: // Fieldref
+			case CONSTANT_METHODREF:
+			case 11: // InterfaceMethodref
+			case CONSTANT_NAME_AND_TYPE:
+			case 17: // Dynamic
+			case 18: // InvokeDynamic
+				offset += 5;
+				break;
+			case CONSTANT_CLASS:
+			case 8: // String
+			case 16: // MethodType
+			case 19: // Module
+			case 20: // Package
+				offset += 3;
+				break;
+			case 15: // MethodHandle
+				offset += 4;
+				break;
+			default:
+				throw new IOException("unknown constant pool tag " + tag);
+			}
+		}
+		constantsEnd = offset;
+		int classAccessFlags = readUnsignedShort(offset);
+		if ((classAccessFlags & ACC_INTERFACE) != 0) {
+			return false;
+		}
+		thisClass = readUnsignedShort(offset + 2);
+		offset += 6;
+		offset += 2 + 2 * readUnsignedShort(offset);
+		int fieldsCount = readUnsignedShort(offset);
+		offset += 2;
+		for (int i = 0; i < fieldsCount; i++) {
+			offset = skipAttributes(offset + 6);
+		}
+		methodsCount = readUnsignedShort(offset);
+		offset += 2;
+		methodsStart = offset;
+		String originalName = name + ORIGINAL_SUFFIX;
+		for (int i = 0; i < methodsCount; i++) {
+			int methodAccessFlags = readUnsignedShort(offset);
+			int methodNameIndex = readUnsignedShort(offset + 2);
+			if (utf8Equals(utf8Offsets, methodNameIndex, originalName)) {
+				// woven before
+				return false;
+			}
+			if ((methodStart < 0) && utf8Equals(utf8Offsets, methodNameIndex, name) && utf8Equals(utf8Offsets, readUnsignedShort(offset + 4), descriptor)
+					&& ((methodAccessFlags & (ACC_STATIC | ACC_ABSTRACT | ACC_NATIVE)) == 0)) {
+				methodStart = offset;
+				accessFlags = methodAccessFlags;
+				nameIndex = readUnsignedShort(offset + 2);
+				descriptorIndex = readUnsignedShort(offset + 4);
+				locateExceptions(utf8Offsets, offset + 6);
+			}
+			offset = skipAttributes(offset + 6);
+		}
+		methodsEnd = offset;
+		return methodStart >= 0;
+	}
+
+	private void locateExceptions(int[] utf8Offsets, int offset) throws IOException {
+		int attributesCount = readUnsignedShort(offset);
+		offset += 2;
+		for (int i = 0; i < attributesCount; i++) {
+			int length = readInt(offset + 2);
+			if (utf8Equals(utf8Offsets, readUnsignedShort(offset), "Exceptions")) {
+				exceptionsStart = offset;
+				exceptionsLength = 6 + length;
+				return;
+			}
+			offset += 6 + length;
+		}
+	}
+
+	private int skipAttributes(int offset) {
+		int attributesCount = readUnsignedShort(offset);
+		offset += 2;
+		for (int i = 0; i < attributesCount; i++) {
+			offset += 6 + readInt(offset + 2);
+		}
+		return offset;
+	}
+
+	/**
+	 * Assembles the modified class file.
+	 */
+	private byte[] write(Wrapper wrapper) throws IOException {
+		int originalNameIndex = utf8(name + ORIGINAL_SUFFIX);
+		originalMethodref = methodref(thisClass, originalNameIndex, descriptorIndex);
+		Code code = new Code(this);
+		wrapper.emit(code);
+		byte[] method = method(code);
+		if (constantCount > 0xFFFF) {
+			throw new IOException("constant pool too large");
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(buffer.length + constants.size() + method.length);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.write(buffer, 0, 8);
+		out.writeShort(constantCount);
+		out.write(buffer, 10, constantsEnd - 10);
+		constants.writeTo(out);
+		out.write(buffer, constantsEnd, methodsStart - 2 - constantsEnd);
+		out.writeShort(methodsCount + 1);
+		out.write(buffer, methodsStart, methodStart + 2 - methodsStart);
+		out.writeShort(originalNameIndex);
+		out.write(buffer, methodStart + 4, methodsEnd - methodStart - 4);
+		out.write(method);
+		out.write(buffer, methodsEnd, buffer.length - methodsEnd);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private byte[] method(Code code) throws IOException {
+		byte[] instructions = code.bytes.toByteArray();
+		byte[] frames = code.frames.toByteArray();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeShort(accessFlags & ~(ACC_BRIDGE | ACC_SYNTHETIC));
+		out.writeShort(nameIndex);
+		out.writeShort(descriptorIndex);
+		out.writeShort((exceptionsStart < 0) ? 1 : 2);
+		out.writeShort(utf8("Code"));
+		int stackMapTableLength = (code.handlerCount == 0) ? 0 : 8 + frames.length;
+		out.writeInt(12 + instructions.length + code.handlers.size() + stackMapTableLength);
+		out.writeShort(code.maxStack);
+		out.writeShort(code.maxLocals);
+		out.writeInt(instructions.length);
+		out.write(instructions);
+		out.writeShort(code.handlerCount);
+		code.handlers.writeTo(out);
+		if (code.handlerCount == 0) {
+			out.writeShort(0);
+		} else {
+			// ignored by JVMs before class file version 50
+			out.writeShort(1);
+			out.writeShort(utf8("StackMapTable"));
+			out.writeInt(2 + frames.length);
+			out.writeShort(code.handlerCount);
+			out.write(frames);
+		}
+		if (exceptionsStart >= 0) {
+			out.write(buffer, exceptionsStart, exceptionsLength);
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private int utf8(String value) throws IOException {
+		constantsOut.writeByte(CONSTANT_UTF8);
+		constantsOut.writeUTF(value);
+		return constantCount++;
+	}
+
+	private int methodref(int classIndex, int nameIndex, int descriptorIndex) throws IOException {
+		constantsOut.writeByte(CONSTANT_NAME_AND_TYPE);
+		constantsOut.writeShort(nameIndex);
+		constantsOut.writeShort(descriptorIndex);
+		int nameAndType = constantCount++;
+		constantsOut.writeByte(CONSTANT_METHODREF);
+		constantsOut.writeShort(classIndex);
+		constantsOut.writeShort(nameAndType);
+		return constantCount++;
+	}
+
+	private int methodref(String owner, String name, String descriptor) {
+		try {
+			int classIndex = classref(owner);
+			int methodNameIndex = utf8(name);
+			return methodref(classIndex, methodNameIndex, utf8(descriptor));
+		} catch (IOException e) {
+			// writing to memory
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private int classref(String name) {
+		try {
+			int nameIndex = utf8(name);
+			constantsOut.writeByte(CONSTANT_CLASS);
+			constantsOut.writeShort(nameIndex);
+			return constantCount++;
+		} catch (IOException e) {
+			// writing to memory
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Compares a Utf8 constant without decoding it. Only suitable for values consisting of ASCII characters,
+	 * which are encoded as one byte per character.
+	 */
+	private boolean utf8Equals(int[] utf8Offsets, int index, String value) throws IOException {
+		int offset = utf8Offsets[index];
+		if (offset == 0) {
+			throw new IOException("constant " + index + " is not a Utf8 constant");
+		}
+		int length = readUnsignedShort(offset);
+		if (length != value.length()) {
+			return false;
+		}
+		offset += 2;
+		for (int i = 0; i < length; i++) {
+			if (buffer[offset + i] != value.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int readUnsignedShort(int offset) {
+		return ((buffer[offset] & 0xFF) << 8) | (buffer[offset + 1] & 0xFF);
+	}
+
+	private int readInt(int offset) {
+		return (readUnsignedShort(offset) << 16) | readUnsignedShort(offset + 2);
+	}
+
+	/**
+	 * @param descriptor a method descriptor
+	 *
+	 * @return the number of local variable slots taken by the parameters
+	 */
+	static int argumentSlots(String descriptor) {
+		int slots = 0;
+		int i = 1;
+		while (descriptor.charAt(i) != ')') {
+			char type = descriptor.charAt(i);
+			if ((type == 'L') || (type == '[')) {
+				while (descriptor.charAt(i) == '[') {
+					i++;
+				}
+				if (descriptor.charAt(i) == 'L') {
+					i = descriptor.indexOf(';', i);
+				}
+				i++;
+				slots++;
+			} else {
+				i++;
+				slots += ((type == 'J') || (type == 'D')) ? 2 : 1;
+			}
+		}
+		return slots;
+	}
+
+	private static int returnSlots(String descriptor) {
+		char type = descriptor.charAt(descriptor.indexOf(')') + 1);
+		if (type == 'V') {
+			return 0;
+		}
+		return ((type == 'J') || (type == 'D')) ? 2 : 1;
+	}
+}
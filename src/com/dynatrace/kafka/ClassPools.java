@@ -0,0 +1,107 @@
+package com.dynatrace.kafka;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.LoaderClassPath;
+
+/**
+ * Holds one Java Assist {@link ClassPool} per {@link ClassLoader} loading Kafka classes.<br />
+ * <br />
+ * A pool searches the {@link ClassLoader} it belongs to, the classes of this Agent
+ * and the system class path, in that order. Pools are held by weak keys and refer to their
+ * {@link ClassLoader} weakly too, so they vanish together with their {@link ClassLoader}.
+ * After every transformation a pool forgets all classes it has parsed, so it only
+ * keeps its search path between two transformations.
+ */
+final class ClassPools {
+
+	/**
+	 * The {@link ClassPool} of a single {@link ClassLoader}.
+	 */
+	private static final class LoaderClassPool extends ClassPool {
+
+		LoaderClassPool(ClassLoader loader) {
+			super(null);
+			if (loader != null) {
+				appendClassPath(new LoaderClassPath(loader));
+			}
+			appendClassPath(new ClassClassPath(KafkaJavaAgent.class));
+			appendSystemPath();
+		}
+
+		/**
+		 * Removes all cached classes, like {@link CtClass#detach()} does for a single one.
+		 * Primitive types are cached by every pool for good.
+		 */
+		void release() {
+			Iterator<?> iterator = classes.values().iterator();
+			while (iterator.hasNext()) {
+				if (!((CtClass) iterator.next()).isPrimitive()) {
+					iterator.remove();
+				}
+			}
+		}
+	}
+
+	private static final Map<ClassLoader, LoaderClassPool> POOLS = new WeakHashMap<>();
+
+	/**
+	 * The {@link ClassPool} for classes loaded by the bootstrap {@link ClassLoader}.
+	 */
+	private static final LoaderClassPool BOOTSTRAP_POOL = new LoaderClassPool(null);
+
+	private ClassPools() {
+		// prevent instantiation
+	}
+
+	private static LoaderClassPool get(ClassLoader loader) {
+		if (loader == null) {
+			return BOOTSTRAP_POOL;
+		}
+		synchronized (POOLS) {
+			LoaderClassPool classPool = POOLS.get(loader);
+			if (classPool == null) {
+				classPool = new LoaderClassPool(loader);
+				POOLS.put(loader, classPool);
+			}
+			return classPool;
+		}
+	}
+
+	/**
+	 * Applies the given {@link ClassTransformation} using the {@link ClassPool} of the
+	 * given {@link ClassLoader}. Transformations sharing a {@link ClassLoader} run one after the other.
+	 *
+	 * @param loader the {@link ClassLoader} loading the class, {@code null} for the bootstrap {@link ClassLoader}
+	 * @param transformation the {@link ClassTransformation} to apply
+	 * @param buffer the byte code of the class
+	 *
+	 * @return the modified byte code or {@code buffer} if nothing has been modified
+	 *
+	 * @throws Exception if the transformation failed
+	 */
+	static byte[] transform(ClassLoader loader, ClassTransformation transformation, byte[] buffer) throws Exception {
+		LoaderClassPool classPool = get(loader);
+		synchronized (classPool) {
+			try {
+				return transformation.transform(classPool, buffer);
+			} finally {
+				classPool.release();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of {@link ClassLoader}s currently holding a {@link ClassPool}
+	 */
+	static int size() {
+		synchronized (POOLS) {
+			return POOLS.size();
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package com.dynatrace.kafka;
+
+import javassist.ClassPool;
+
+/**
+ * A transformation of the byte code of a single class, registered via
+ * {@link KafkaJavaAgent#register(ClassTransformation)}.<br />
+ * <br />
+ * {@link #transform(ClassPool, byte[])} is getting passed the {@link ClassPool}
+ * of the {@link ClassLoader} loading the class to transform, which resolves the
+ * classes the transformed class refers to as well as the classes of this Agent.
+ */
+public abstract class ClassTransformation {
+
+	private final String className;
+
+	/**
+	 * @param className the internal name of the class to transform, e.g. {@code org/apache/kafka/clients/producer/KafkaProducer}
+	 */
+	protected ClassTransformation(String className) {
+		if (className == null) {
+			throw new NullPointerException("className");
+		}
+		this.className = className;
+	}
+
+	/**
+	 * @return the internal name of the class to transform
+	 */
+	public final String getClassName() {
+		return className;
+	}
+
+	/**
+	 * Evaluated every time the class to transform is getting loaded.
+	 *
+	 * @return {@code false} if the class should currently be left untouched, {@code true} by default
+	 */
+	public boolean isEnabled() {
+		return true;
+	}
+
+	/**
+	 * @param classPool the Java Assist Class Pool to use
+	 * @param buffer the byte code of the class
+	 *
+	 * @return the modified byte code or {@code buffer} if nothing has been modified
+	 *
+	 * @throws Exception if the transformation failed
+	 */
+	public abstract byte[] transform(ClassPool classPool, byte[] buffer) throws Exception;
+
+	@Override
+	public String toString() {
+		return className.replace('/', '.');
+	}
+}
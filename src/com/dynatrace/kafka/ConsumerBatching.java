@@ -0,0 +1,42 @@
+package com.dynatrace.kafka;
+
+/**
+ * Decides whether consumed records are linked per batch returned by
+ * {@code KafkaConsumer.poll} instead of per record.<br />
+ * <br />
+ * In batch mode every batch gets indexed once right after polling. Iterating
+ * the batch afterwards only starts PurePaths for records carrying a valid trace
+ * tag, all other records cost a single lookup. As only {@link Propagation#HEADER}
+ * tells which records carry a trace tag, batch mode requires it.
+ */
+public final class ConsumerBatching {
+
+	/**
+	 * System Property enabling batch mode for {@code KafkaConsumer}. Defaults to {@code false}.
+	 */
+	private static final String PROPERTY_CONSUMER_BATCH = "com.dynatrace.kafka.agent.consumer.batch";
+
+	private static final boolean ENABLED = resolveEnabled();
+
+	private ConsumerBatching() {
+		// prevent instantiation
+	}
+
+	private static boolean resolveEnabled() {
+		if (!AgentProperties.getBoolean(PROPERTY_CONSUMER_BATCH, false)) {
+			return false;
+		}
+		if (!TraceTagHeaders.isEnabled()) {
+			Logging.warn("System Property '{}' requires {} propagation - linking consumed records one by one", PROPERTY_CONSUMER_BATCH, Propagation.HEADER);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return {@code true} if consumed records are linked per batch
+	 */
+	public static boolean isEnabled() {
+		return ENABLED && TraceTagHeaders.isEnabled();
+	}
+}
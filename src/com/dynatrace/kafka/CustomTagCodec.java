@@ -0,0 +1,290 @@
+package com.dynatrace.kafka;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Encodes topic, partition and offset of a record into a compact binary custom tag.<br />
+ * <br />
+ * The layout is
+ * <ul>
+ * <li>one byte {@link #VERSION}</li>
+ * <li>eight bytes topic id, a 64 bit hash of the topic name, big endian</li>
+ * <li>the partition as zig zag encoded varint, one to five bytes</li>
+ * <li>the offset as zig zag encoded varint, one to ten bytes</li>
+ * </ul>
+ * The topic id only depends on the topic name, so producers and consumers running
+ * within different JVMs produce equal tags for the same record. Topic ids of topic
+ * names seen are interned, so encoding does not need to hash the name again and
+ * decoding can resolve the name. Two topic names sharing an id are practically
+ * impossible with 64 bits, should it happen anyway the id no longer resolves to a name.<br />
+ * <br />
+ * Encoding neither allocates nor locks once a topic has been interned.
+ */
+public final class CustomTagCodec {
+
+	/**
+	 * The first byte of every tag, identifying this layout.
+	 */
+	public static final byte VERSION = 2;
+
+	/**
+	 * The maximum length of a tag in bytes.
+	 */
+	public static final int MAX_LENGTH = 1 + 8 + 5 + 10;
+
+	/**
+	 * The index of the partition varint within a tag.
+	 */
+	private static final int PARTITION_POSITION = 1 + 8;
+
+	/**
+	 * The maximum number of topic names interned, further topics get hashed on every call.
+	 */
+	private static final int MAX_TOPICS = 4096;
+
+	private static final ConcurrentMap<String, Long> TOPIC_IDS = new ConcurrentHashMap<>();
+
+	private static final ConcurrentMap<Long, String> TOPIC_NAMES = new ConcurrentHashMap<>();
+
+	/**
+	 * Marks an id shared by two topic names within {@link #TOPIC_NAMES}.
+	 */
+	private static final String COLLISION = new String("collision");
+
+	/**
+	 * Per thread one array for every possible tag length, see {@link #encode(String, int, long)}.
+	 */
+	private static final ThreadLocal<byte[][]> TAGS = new ThreadLocal<byte[][]>() {
+		@Override
+		protected byte[][] initialValue() {
+			byte[][] tags = new byte[MAX_LENGTH + 1][];
+			for (int length = 0; length <= MAX_LENGTH; length++) {
+				tags[length] = new byte[length];
+			}
+			return tags;
+		}
+	};
+
+	/**
+	 * Per thread scratch space for {@link #encode(String, int, long)}.
+	 */
+	private static final ThreadLocal<byte[]> SCRATCH = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[MAX_LENGTH];
+		}
+	};
+
+	private CustomTagCodec() {
+		// prevent instantiation
+	}
+
+	/**
+	 * @param topic the name of the topic, may be {@code null}
+	 *
+	 * @return the id of the topic, equal within every JVM
+	 */
+	public static long topicId(String topic) {
+		if (topic == null) {
+			return 0;
+		}
+		Long id = TOPIC_IDS.get(topic);
+		if (id != null) {
+			return id.longValue();
+		}
+		long hash = hash(topic);
+		if (TOPIC_IDS.size() < MAX_TOPICS) {
+			Long key = Long.valueOf(hash);
+			TOPIC_IDS.putIfAbsent(topic, key);
+			String name = TOPIC_NAMES.putIfAbsent(key, topic);
+			if ((name != null) && !name.equals(topic) && (name != COLLISION)) {
+				TOPIC_NAMES.put(key, COLLISION);
+				Logging.warn("topics '{}' and '{}' share the id {} - tags of both topics are indistinguishable", name, topic, Long.toHexString(hash));
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * 64 bit FNV-1a over the characters of the given topic name.
+	 */
+	private static long hash(String topic) {
+		long hash = 0xCBF29CE484222325L;
+		for (int i = 0; i < topic.length(); i++) {
+			char c = topic.charAt(i);
+			hash = (hash ^ (c & 0xFF)) * 0x100000001B3L;
+			hash = (hash ^ (c >>> 8)) * 0x100000001B3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Encodes a tag into the given array.
+	 *
+	 * @param topic the topic of the record
+	 * @param partition the partition of the record
+	 * @param offset the offset of the record
+	 * @param dst the array to write to, needs to have at least {@link #MAX_LENGTH} bytes left after {@code position}
+	 * @param position the index of the first byte to write
+	 *
+	 * @return the index after the last byte written
+	 */
+	public static int encode(String topic, int partition, long offset, byte[] dst, int position) {
+		long topicId = topicId(topic);
+		dst[position++] = VERSION;
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			dst[position++] = (byte) (topicId >>> shift);
+		}
+		position = writeVarint(dst, position, ((partition << 1) ^ (partition >> 31)) & 0xFFFFFFFFL);
+		return writeVarint(dst, position, (offset << 1) ^ (offset >> 63));
+	}
+
+	/**
+	 * Encodes a tag into the given {@link ByteBuffer}, advancing its position.
+	 *
+	 * @param topic the topic of the record
+	 * @param partition the partition of the record
+	 * @param offset the offset of the record
+	 * @param dst the {@link ByteBuffer} to write to, needs to have at least {@link #MAX_LENGTH} bytes remaining
+	 */
+	public static void encode(String topic, int partition, long offset, ByteBuffer dst) {
+		if (dst.hasArray()) {
+			int position = dst.arrayOffset() + dst.position();
+			dst.position(encode(topic, partition, offset, dst.array(), position) - dst.arrayOffset());
+			return;
+		}
+		byte[] scratch = SCRATCH.get();
+		int length = encode(topic, partition, offset, scratch, 0);
+		dst.put(scratch, 0, length);
+	}
+
+	/**
+	 * Encodes a tag into an array of exactly the tag's length owned by the calling thread.
+	 * The array gets overwritten by the next call of the same thread for a tag of the same
+	 * length, so it must not be kept.
+	 *
+	 * @param topic the topic of the record
+	 * @param partition the partition of the record
+	 * @param offset the offset of the record
+	 *
+	 * @return the tag
+	 */
+	public static byte[] encode(String topic, int partition, long offset) {
+		byte[] scratch = SCRATCH.get();
+		int length = encode(topic, partition, offset, scratch, 0);
+		byte[] tag = TAGS.get()[length];
+		System.arraycopy(scratch, 0, tag, 0, length);
+		return tag;
+	}
+
+	private static int writeVarint(byte[] dst, int position, long value) {
+		while ((value & ~0x7FL) != 0) {
+			dst[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		dst[position++] = (byte) value;
+		return position;
+	}
+
+	/**
+	 * @param tag a tag produced by this codec
+	 *
+	 * @return {@code true} if the given bytes are a complete tag of this layout
+	 */
+	public static boolean isValid(byte[] tag) {
+		if ((tag == null) || (tag.length < PARTITION_POSITION + 2) || (tag[0] != VERSION)) {
+			return false;
+		}
+		int position = skipVarint(tag, PARTITION_POSITION, 5);
+		if (position < 0) {
+			return false;
+		}
+		return skipVarint(tag, position, 10) == tag.length;
+	}
+
+	private static int skipVarint(byte[] tag, int position, int maxBytes) {
+		for (int i = 0; i < maxBytes; i++) {
+			if (position >= tag.length) {
+				return -1;
+			}
+			if ((tag[position++] & 0x80) == 0) {
+				return position;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param tag a tag, see {@link #isValid(byte[])}
+	 *
+	 * @return the topic id encoded within the tag
+	 */
+	public static long decodeTopicId(byte[] tag) {
+		long topicId = 0;
+		for (int i = 1; i < PARTITION_POSITION; i++) {
+			topicId = (topicId << 8) | (tag[i] & 0xFF);
+		}
+		return topicId;
+	}
+
+	/**
+	 * @param tag a tag, see {@link #isValid(byte[])}
+	 *
+	 * @return the name of the topic encoded within the tag or {@code null} if that topic has not been seen by this JVM
+	 * 		or its id is shared by another topic
+	 */
+	public static String decodeTopic(byte[] tag) {
+		String topic = TOPIC_NAMES.get(Long.valueOf(decodeTopicId(tag)));
+		return (topic == COLLISION) ? null : topic;
+	}
+
+	/**
+	 * @param tag a tag, see {@link #isValid(byte[])}
+	 *
+	 * @return the partition encoded within the tag
+	 */
+	public static int decodePartition(byte[] tag) {
+		long zigZag = readVarint(tag, PARTITION_POSITION);
+		return (int) (zigZag >>> 1) ^ -(int) (zigZag & 1);
+	}
+
+	/**
+	 * @param tag a tag, see {@link #isValid(byte[])}
+	 *
+	 * @return the offset encoded within the tag
+	 */
+	public static long decodeOffset(byte[] tag) {
+		long zigZag = readVarint(tag, skipVarint(tag, PARTITION_POSITION, 5));
+		return (zigZag >>> 1) ^ -(zigZag & 1);
+	}
+
+	private static long readVarint(byte[] tag, int position) {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = tag[position++];
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+
+	/**
+	 * @param tag a tag, see {@link #isValid(byte[])}
+	 *
+	 * @return a human readable representation of the tag, for logging
+	 */
+	public static String toString(byte[] tag) {
+		if (!isValid(tag)) {
+			return "invalid";
+		}
+		String topic = decodeTopic(tag);
+		if (topic == null) {
+			topic = "#" + Long.toHexString(decodeTopicId(tag));
+		}
+		return topic + "-" + decodePartition(tag) + "-" + decodeOffset(tag);
+	}
+}
@@ -2,9 +2,11 @@ package com.dynatrace.kafka;
 
 public class CustomTagGen {
 
+	/**
+	 * @return the custom tag for the given record, see {@link CustomTagCodec#encode(String, int, long)}
+	 * 		for how long the returned array may be used
+	 */
 	public static byte[] gen(String topic, int partition, long offset) {
-		String sTag = "" + topic + "-" + partition + "-" + offset;
-		System.out.println(sTag);
-		return sTag.getBytes();
+		return CustomTagCodec.encode(topic, partition, offset);
 	}
 }
@@ -1,7 +1,16 @@
 package com.dynatrace.kafka;
 
+/**
+ * Superseded by {@link DebugHook}. Kept for Sensor configurations still
+ * referring to it, no longer filling in a stack trace.
+ */
 public class DebugException extends Exception {
 
 	private static final long serialVersionUID = 1L;
 
+	@Override
+	public synchronized Throwable fillInStackTrace() {
+		return this;
+	}
+
 }
@@ -0,0 +1,27 @@
+package com.dynatrace.kafka;
+
+/**
+ * Probe points injected into the constructors of Kafka classes of the old
+ * consumer API when {@code -Dcom.dynatrace.kafka.agent.debug.hooks=true} is set.<br />
+ * <br />
+ * The methods of this class intentionally do nothing. Placing a Method Sensor on
+ * {@link #constructed(Object)} makes the constructor invocations visible within
+ * PurePaths. As long as no Sensor is placed the JIT compiler removes the call
+ * entirely, unlike throwing a {@link DebugException}, which had to fill in a
+ * stack trace for every constructed object.
+ */
+public final class DebugHook {
+
+	private DebugHook() {
+		// prevent instantiation
+	}
+
+	/**
+	 * Called at the end of every enriched constructor.
+	 *
+	 * @param instance the object just constructed
+	 */
+	public static void constructed(Object instance) {
+		// entry point for Method Sensors
+	}
+}
@@ -0,0 +1,149 @@
+package com.dynatrace.kafka;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ibm.mq.MQDestination;
+import com.ibm.mq.MQQueueManager;
+
+/**
+ * Keeps one {@link MQDestination} per topic, so passing a record to the MQ Sensors
+ * costs a hash lookup instead of an allocation.<br />
+ * <br />
+ * The cache is bounded by {@link #PROPERTY_DESTINATION_CACHE_SIZE}. Once exceeded, the
+ * least recently used eighth of the entries gets evicted in one go, so topics created
+ * and deleted dynamically do not pile up, while the walk over all entries this takes
+ * only happens once per that many misses. Recency is measured in misses:
+ * a hit only writes to the entry if a miss happened since its last hit, so hits on
+ * a stable set of topics do not write shared memory at all.
+ */
+public final class DestinationCache {
+
+	/**
+	 * System Property for the maximum number of topics an {@link MQDestination} is kept for.
+	 * Defaults to {@code 1024}.
+	 */
+	private static final String PROPERTY_DESTINATION_CACHE_SIZE = "com.dynatrace.kafka.agent.destination.cache.size";
+
+
+	private static final class Entry {
+
+		final MQDestination destination;
+		volatile long lastUsed;
+
+		Entry(MQDestination destination, long lastUsed) {
+			this.destination = destination;
+			this.lastUsed = lastUsed;
+		}
+	}
+
+	private static final int CAPACITY = Math.max(1, AgentProperties.getInt(PROPERTY_DESTINATION_CACHE_SIZE, 1024));
+
+	/**
+	 * The number of entries evicted at once, below {@link #CAPACITY}.
+	 */
+	private static final int EVICTION_BATCH = Math.max(1, CAPACITY >> 3);
+
+	private static final ConcurrentMap<String, Entry> ENTRIES = new ConcurrentHashMap<>();
+
+	/**
+	 * Set while a thread evicts, other threads missing meanwhile do not wait for it.
+	 */
+	private static final AtomicBoolean EVICTING = new AtomicBoolean();
+
+	/**
+	 * Advanced on every miss.
+	 */
+	private static final AtomicLong CLOCK = new AtomicLong();
+
+	private DestinationCache() {
+		// prevent instantiation
+	}
+
+	/**
+	 * @param topic the name of the topic, may be {@code null}
+	 *
+	 * @return the {@link MQDestination} for the given topic, a new one for {@code null}
+	 */
+	public static MQDestination get(String topic) {
+		if (topic == null) {
+			return new MQDestination(topic, MQQueueManager.INSTANCE);
+		}
+		Entry entry = ENTRIES.get(topic);
+		if (entry != null) {
+			AgentMetrics.DESTINATION_CACHE_HITS.increment();
+			long now = CLOCK.get();
+			if (entry.lastUsed != now) {
+				entry.lastUsed = now;
+			}
+			return entry.destination;
+		}
+		AgentMetrics.DESTINATION_CACHE_MISSES.increment();
+		entry = new Entry(new MQDestination(topic, MQQueueManager.INSTANCE), CLOCK.incrementAndGet());
+		Entry existing = ENTRIES.putIfAbsent(topic, entry);
+		if (existing != null) {
+			return existing.destination;
+		}
+		if (ENTRIES.size() > CAPACITY) {
+			evict(topic);
+		}
+		return entry.destination;
+	}
+
+	/**
+	 * Shrinks the cache to {@link #EVICTION_BATCH} entries below {@link #CAPACITY},
+	 * removing the least recently used entries except the one of the given topic.
+	 * Does nothing if another thread is evicting already.
+	 */
+	private static void evict(String keep) {
+		if (!EVICTING.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			int size = ENTRIES.size();
+			int count = Math.min(size - CAPACITY + EVICTION_BATCH, size);
+			if (count <= 0) {
+				return;
+			}
+			long[] lastUsed = new long[size];
+			int candidates = 0;
+			for (Map.Entry<String, Entry> candidate : ENTRIES.entrySet()) {
+				if (candidates == lastUsed.length) {
+					break;
+				}
+				if (!candidate.getKey().equals(keep)) {
+					lastUsed[candidates++] = candidate.getValue().lastUsed;
+				}
+			}
+			if (candidates == 0) {
+				return;
+			}
+			Arrays.sort(lastUsed, 0, candidates);
+			long threshold = lastUsed[Math.min(count, candidates) - 1];
+			int evicted = 0;
+			for (Map.Entry<String, Entry> candidate : ENTRIES.entrySet()) {
+				if (evicted == count) {
+					break;
+				}
+				Entry entry = candidate.getValue();
+				if ((entry.lastUsed <= threshold) && !candidate.getKey().equals(keep) && ENTRIES.remove(candidate.getKey(), entry)) {
+					evicted++;
+				}
+			}
+			AgentMetrics.DESTINATION_CACHE_EVICTIONS.add(evicted);
+		} finally {
+			EVICTING.set(false);
+		}
+	}
+
+	/**
+	 * @return the number of topics an {@link MQDestination} is currently kept for
+	 */
+	public static int size() {
+		return ENTRIES.size();
+	}
+}
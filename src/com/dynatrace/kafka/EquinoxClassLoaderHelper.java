@@ -7,6 +7,8 @@ import javassist.CtClass;
 import javassist.CtConstructor;
 import javassist.CtField;
 import javassist.CtMethod;
+import javassist.Modifier;
+import javassist.bytecode.Descriptor;
 
 /**
  * Transformation Helper for modifying the byte code of classes
@@ -17,6 +19,11 @@ import javassist.CtMethod;
  *
  */
 public class EquinoxClassLoaderHelper extends TransformationHelper {
+	
+	/**
+	 * Source code appended to enriched constructors, see {@link DebugHook}.
+	 */
+	private static final String DEBUG_HOOK = "com.dynatrace.kafka.DebugHook.constructed($0);";
 
 	/**
 	 * Modifies the byte code of class {@code com.ibm.ws.webcontainer.servlet.ServletWrapper}. <br />
@@ -33,7 +40,7 @@ public class EquinoxClassLoaderHelper extends TransformationHelper {
 		Logging.info("intercepted loading of com.ibm.ws.webcontainer.servlet.ServletWrapper");
 		try {
 			// loading the stub class holding modified byte code for us
-			CtClass ctServletWrapperStub = loadStubClass(classPool, "com/ibm/ws/webcontainer/servlet/ServletWrapperStub.class");
+			CtClass ctServletWrapperStub = loadStubClass("com/ibm/ws/webcontainer/servlet/ServletWrapperStub.class");
 			// loading the class in memory for modification
 			CtClass ctServletWrapper = classPool.makeClass(new ByteArrayInputStream(buffer));
 			CtMethod[] ctServiceOrigMethods = ctServletWrapper.getDeclaredMethods("service");
@@ -84,7 +91,7 @@ public class EquinoxClassLoaderHelper extends TransformationHelper {
 		Logging.info("intercepted loading of com.comerica.pci.isoconverter.integration.IsoRestClient");
 		try {
 			// loading the stub class holding modified byte code for us
-			CtClass ctIsoRestClientStub = loadStubClass(classPool, "com/comerica/pci/isoconverter/integration/IsoRestClientStub.class");
+			CtClass ctIsoRestClientStub = loadStubClass("com/comerica/pci/isoconverter/integration/IsoRestClientStub.class");
 			// loading the class in memory for modification
 			CtClass ctIsoRestClient = classPool.makeClass(new ByteArrayInputStream(buffer));
 			CtMethod[] ctPostOrigMethods = ctIsoRestClient.getDeclaredMethods("post");
@@ -125,7 +132,7 @@ public class EquinoxClassLoaderHelper extends TransformationHelper {
 		Logging.info("intercepted loading of org.apache.kafka.clients.producer.KafkaProducer");
 		try {
 			// loading the stub class holding modified byte code for us
-			CtClass ctKafkaProducerStub = loadStubClass(classPool, "org/apache/kafka/clients/producer/KafkaProducerStub.class");
+			CtClass ctKafkaProducerStub = loadStubClass("org/apache/kafka/clients/producer/KafkaProducerStub.class");
 			// loading the class in memory for modification
 			CtClass ctKafkaProducer = classPool.makeClass(new ByteArrayInputStream(buffer));
 			CtMethod[] ctSendOrigMethods = ctKafkaProducer.getDeclaredMethods("send");
@@ -160,11 +167,54 @@ public class EquinoxClassLoaderHelper extends TransformationHelper {
 		}
 	} 
 	
+	/**
+	 * Modifies the byte code of class {@code org.apache.kafka.clients.consumer.KafkaConsumer}
+	 * for batch mode, see {@link ConsumerBatching}. <br />
+	 * <br />
+	 * The public {@code poll} methods (accepting either a {@code long} or a {@code java.time.Duration})
+	 * will pass the polled {@code ConsumerRecords} to {@code kafka.consumer.PurePathStarter.handle} before returning them.<br />
+	 * 
+	 * @param classPool the Java Assist Class Pool to use
+	 * @param buffer the byte code of the class
+	 * 
+	 * @return the modified byte code
+	 */
+	public static byte[] transformKafkaConsumer(ClassPool classPool, byte[] buffer) {
+		Logging.info("intercepted loading of org.apache.kafka.clients.consumer.KafkaConsumer");
+		try {
+			// loading the class in memory for modification
+			CtClass ctKafkaConsumer = classPool.makeClass(new ByteArrayInputStream(buffer));
+			boolean modified = false;
+			CtMethod[] ctPollMethods = ctKafkaConsumer.getDeclaredMethods("poll");
+			for (CtMethod ctPollMethod : ctPollMethods) {
+				String descriptor = ctPollMethod.getMethodInfo2().getDescriptor();
+				// skipping the internal poll methods
+				if (!Modifier.isPublic(ctPollMethod.getModifiers()) || (Descriptor.numOfParameters(descriptor) != 1) || !descriptor.endsWith(")Lorg/apache/kafka/clients/consumer/ConsumerRecords;")) {
+					continue;
+				}
+				Logging.info("  enriching method poll{}", descriptor);
+				ctPollMethod.insertAfter("$_ = kafka.consumer.PurePathStarter.handle($_);");
+				modified = true;
+			}
+			if (!modified) {
+				return buffer;
+			}
+			// in memory compilation
+			ctKafkaConsumer.rebuildClassFile();
+			// returning modified byte code
+			return ctKafkaConsumer.toBytecode();
+		} catch (Throwable t) {
+			// even if everything fails we NEED to return byte code - by default the original byte code
+			Logging.error("transformation of org.apache.kafka.clients.consumer.KafkaConsumer failed", t);
+			return buffer;
+		}
+	}
+	
 	public static byte[] transformConsumerIterator(ClassPool classPool, byte[] buffer) {
 		Logging.info("intercepted loading of kafka.consumer.ConsumerIterator");
 		try {
 			// loading the stub class holding modified byte code for us
-			CtClass ctConsumerIteratorStub = loadStubClass(classPool, "kafka/consumer/ConsumerIteratorStub.class");
+			CtClass ctConsumerIteratorStub = loadStubClass("kafka/consumer/ConsumerIteratorStub.class");
 			// loading the class in memory for modification
 			CtClass ctConsumerIterator = classPool.makeClass(new ByteArrayInputStream(buffer));
 			CtMethod[] ctNextOrigMethods = ctConsumerIterator.getDeclaredMethods("next");
@@ -203,7 +253,7 @@ public class EquinoxClassLoaderHelper extends TransformationHelper {
 		Logging.info("intercepted loading of org.apache.kafka.common.record.Record");
 		try {
 			// loading the stub class holding modified byte code for us
-			CtClass ctRecordStub = loadStubClass(classPool, "org/apache/kafka/common/record/RecordStub.class");
+			CtClass ctRecordStub = loadStubClass("org/apache/kafka/common/record/RecordStub.class");
 			// loading the class in memory for modification
 			CtClass ctRecord = classPool.makeClass(new ByteArrayInputStream(buffer));
 			CtMethod[] ctRecordStubMethods = ctRecordStub.getDeclaredMethods();
@@ -237,13 +287,13 @@ public class EquinoxClassLoaderHelper extends TransformationHelper {
 		Logging.info("intercepted loading of kafka.message.MessageAndOffset");
 		try {
 //			// loading the stub class holding modified byte code for us
-//			CtClass ctRecordStub = loadStubClass(classPool, "org/apache/kafka/common/record/RecordStub.class");
+//			CtClass ctRecordStub = loadStubClass("org/apache/kafka/common/record/RecordStub.class");
 			// loading the class in memory for modification
 			CtClass ctMessageAndOffset = classPool.makeClass(new ByteArrayInputStream(buffer));
 			
 			CtConstructor ctMessageAndOffsetCtor = ctMessageAndOffset.getDeclaredConstructor(new CtClass[] { classPool.getCtClass("kafka.message.Message"), CtClass.longType });
 			// ctMessageAndOffsetCtor.insertAfter("try { java.lang.System.out.println(new StringBuilder(\"offset: \").append(offset).toString()); throw new com.dynatrace.kafka.DebugException(); } catch (Throwable t) { }");
-			ctMessageAndOffsetCtor.insertAfter("try { throw new com.dynatrace.kafka.DebugException(); } catch (Throwable t) { }");
+			ctMessageAndOffsetCtor.insertAfter(DEBUG_HOOK);
 			
 			ctMessageAndOffset.rebuildClassFile();
 			return ctMessageAndOffset.toBytecode();
@@ -283,7 +333,7 @@ public class EquinoxClassLoaderHelper extends TransformationHelper {
 			if (ctors != null) {
 				for (CtConstructor ctor : ctors) {
 					Logging.info("   .. enriching constructor");
-					ctor.insertAfter("try { throw new com.dynatrace.kafka.DebugException(); } catch (Throwable t) { }");
+					ctor.insertAfter(DEBUG_HOOK);
 				}
 			}
 			ctByteBufferMessageSet.rebuildClassFile();
@@ -306,7 +356,7 @@ public class EquinoxClassLoaderHelper extends TransformationHelper {
 				for (CtConstructor ctor : ctors) {
 					Logging.info("   .. enriching constructor");
 					// ctor.insertAfter("try { java.lang.System.out.println(new StringBuilder(\"partitionData: \").append(partitionData.keySet().size()).toString()); java.lang.System.out.println(new StringBuilder(\"topic: \").append(topic).toString()); throw new com.dynatrace.kafka.DebugException(); } catch (Throwable t) {  }");
-					ctor.insertAfter("try { throw new com.dynatrace.kafka.DebugException(); } catch (Throwable t) {  }");
+					ctor.insertAfter(DEBUG_HOOK);
 				}
 			}
 			ctByteBufferMessageSet.rebuildClassFile();
@@ -329,7 +379,7 @@ public class EquinoxClassLoaderHelper extends TransformationHelper {
 			if (ctors != null) {
 				for (CtConstructor ctor : ctors) {
 					Logging.info("   .. enriching constructor");
-					ctor.insertAfter("try { throw new com.dynatrace.kafka.DebugException(); } catch (Throwable t) {  }");
+					ctor.insertAfter(DEBUG_HOOK);
 				}
 			}
 			ctFetchResponsePartitionData.rebuildClassFile();
@@ -346,7 +396,7 @@ public class EquinoxClassLoaderHelper extends TransformationHelper {
 		Logging.info("intercepted loading of org.apache.kafka.clients.consumer.ConsumerRecords$ConcatenatedIterable$1");
 		try {
 			// loading the stub class holding modified byte code for us
-			CtClass ctConsumerIteratorStub = loadStubClass(classPool, "org/apache/kafka/clients/consumer/ConsumerRecordsDollarConcatenatedIterableDollar1Stub.class");
+			CtClass ctConsumerIteratorStub = loadStubClass("org/apache/kafka/clients/consumer/ConsumerRecordsDollarConcatenatedIterableDollar1Stub.class");
 			// loading the class in memory for modification
 			CtClass ctConsumerIterator = classPool.makeClass(new ByteArrayInputStream(buffer));
 			CtMethod[] ctNextOrigMethods = ctConsumerIterator.getDeclaredMethods("makeNext");
@@ -381,5 +431,67 @@ public class EquinoxClassLoaderHelper extends TransformationHelper {
 		}
 	}		
 	
+	/**
+	 * Modifies the byte code of class {@code org.apache.kafka.clients.producer.ProducerConfig}
+	 * for {@link Instrumentation#INTERCEPTOR}. <br />
+	 * <br />
+	 * Constructors accepting a {@code java.util.Map} or {@code java.util.Properties} will pass it to
+	 * {@link Interceptors#producerConfig(java.util.Map)} before the configuration gets parsed.<br />
+	 * 
+	 * @param classPool the Java Assist Class Pool to use
+	 * @param buffer the byte code of the class
+	 * 
+	 * @return the modified byte code
+	 */
+	public static byte[] transformProducerConfig(ClassPool classPool, byte[] buffer) {
+		return injectInterceptor(classPool, buffer, "org.apache.kafka.clients.producer.ProducerConfig", "com.dynatrace.kafka.Interceptors.producerConfig($1)");
+	}
+	
+	/**
+	 * Modifies the byte code of class {@code org.apache.kafka.clients.consumer.ConsumerConfig}
+	 * for {@link Instrumentation#INTERCEPTOR}, see {@link #transformProducerConfig(ClassPool, byte[])}.
+	 * 
+	 * @param classPool the Java Assist Class Pool to use
+	 * @param buffer the byte code of the class
+	 * 
+	 * @return the modified byte code
+	 */
+	public static byte[] transformConsumerConfig(ClassPool classPool, byte[] buffer) {
+		return injectInterceptor(classPool, buffer, "org.apache.kafka.clients.consumer.ConsumerConfig", "com.dynatrace.kafka.Interceptors.consumerConfig($1)");
+	}
+	
+	private static byte[] injectInterceptor(ClassPool classPool, byte[] buffer, String className, String call) {
+		Logging.info("intercepted loading of {}", className);
+		try {
+			// loading the class in memory for modification
+			CtClass ctConfig = classPool.makeClass(new ByteArrayInputStream(buffer));
+			boolean modified = false;
+			for (CtConstructor ctor : ctConfig.getDeclaredConstructors()) {
+				String descriptor = ctor.getMethodInfo2().getDescriptor();
+				// inserted before the call of the super constructor, which parses the configuration
+				if (descriptor.startsWith("(Ljava/util/Map;")) {
+					Logging.info("  enriching constructor {}", descriptor);
+					ctor.insertBefore("$1 = " + call + ";");
+					modified = true;
+				} else if (descriptor.startsWith("(Ljava/util/Properties;")) {
+					Logging.info("  enriching constructor {}", descriptor);
+					ctor.insertBefore("$1 = (java.util.Properties) " + call + ";");
+					modified = true;
+				}
+			}
+			if (!modified) {
+				return buffer;
+			}
+			// in memory compilation
+			ctConfig.rebuildClassFile();
+			// returning modified byte code
+			return ctConfig.toBytecode();
+		} catch (Throwable t) {
+			// even if everything fails we NEED to return byte code - by default the original byte code
+			Logging.error("transformation of " + className + " failed", t);
+			return buffer;
+		}
+	}
+	
 	
 }
@@ -0,0 +1,22 @@
+package com.dynatrace.kafka;
+
+/**
+ * The ways the Agent gets called by the Kafka clients of the new consumer and producer API.
+ */
+public enum Instrumentation {
+
+	/**
+	 * {@code KafkaProducer.send} and the iterator of {@code ConsumerRecords} get wrapped
+	 * by the configured {@link Weaver}.
+	 */
+	WEAVING,
+
+	/**
+	 * {@code KafkaProducer} and {@code KafkaConsumer} are left untouched. Only the
+	 * constructors of {@code ProducerConfig} and {@code ConsumerConfig} get enriched,
+	 * adding the interceptors of this Agent to {@code interceptor.classes}, see {@link Interceptors}.
+	 * Requires {@link Propagation#HEADER}.
+	 */
+	INTERCEPTOR;
+
+}
@@ -0,0 +1,184 @@
+package com.dynatrace.kafka;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Decides whether the Agent gets called via Kafka's own interceptors, see
+ * {@link Instrumentation#INTERCEPTOR}, and adds them to the configuration of
+ * every {@code KafkaProducer} and {@code KafkaConsumer}.<br />
+ * <br />
+ * The enriched constructors of {@code ProducerConfig} and {@code ConsumerConfig}
+ * pass the configuration given by the application through {@link #producerConfig(Map)}
+ * and {@link #consumerConfig(Map)} before Kafka parses it. Interceptors configured by
+ * the application are kept, the interceptor of this Agent is appended.<br />
+ * <br />
+ * Interceptors only see the record on the sending thread and the batch on the polling
+ * thread, the trace tag can therefore only travel within a record header.<br />
+ * <br />
+ * Kafka classes woven ahead of time, see {@link OfflineWeaver}, call into the Agent
+ * no matter which {@link Instrumentation} is configured at runtime. Calls belonging to
+ * the other {@link Instrumentation} are skipped, see {@link #conflicts(boolean)}, so
+ * records never get tagged twice.
+ */
+public final class Interceptors {
+
+	/**
+	 * System Property selecting the {@link Instrumentation}. Defaults to {@link Instrumentation#WEAVING}.
+	 */
+	private static final String PROPERTY_INSTRUMENTATION = "com.dynatrace.kafka.agent.instrumentation";
+
+	/**
+	 * The key of the Kafka configuration listing the interceptors of a client.
+	 */
+	public static final String INTERCEPTOR_CLASSES = "interceptor.classes";
+
+	public static final String PRODUCER_INTERCEPTOR = "com.dynatrace.kafka.TracingProducerInterceptor";
+
+	public static final String CONSUMER_INTERCEPTOR = "com.dynatrace.kafka.TracingConsumerInterceptor";
+
+	private static final boolean ENABLED = resolveEnabled();
+
+	private static final AtomicBoolean CONFLICT_LOGGED = new AtomicBoolean();
+
+	private Interceptors() {
+		// prevent instantiation
+	}
+
+	private static boolean resolveEnabled() {
+		Instrumentation instrumentation = AgentProperties.getEnum(PROPERTY_INSTRUMENTATION, Instrumentation.class, Instrumentation.WEAVING);
+		if (instrumentation != Instrumentation.INTERCEPTOR) {
+			return false;
+		}
+		if (!TraceTagHeaders.isEnabled()) {
+			Logging.warn("{} instrumentation requires {} propagation - falling back to {}", Instrumentation.INTERCEPTOR, Propagation.HEADER, Instrumentation.WEAVING);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return {@code true} if the Agent gets called via Kafka's interceptors instead of woven methods
+	 */
+	public static boolean isEnabled() {
+		return ENABLED;
+	}
+
+	/**
+	 * @return the {@link Instrumentation} in effect
+	 */
+	public static Instrumentation instrumentation() {
+		return ENABLED ? Instrumentation.INTERCEPTOR : Instrumentation.WEAVING;
+	}
+
+	/**
+	 * Checks a call into the Agent against the {@link Instrumentation} in effect,
+	 * logging a warning on the first conflicting call.
+	 *
+	 * @param intercepting {@code true} for calls by interceptors or the configuration classes
+	 * 		they get added by, {@code false} for calls by woven Kafka methods
+	 *
+	 * @return {@code true} if the call belongs to the other {@link Instrumentation} and needs to get skipped
+	 */
+	public static boolean conflicts(boolean intercepting) {
+		if (intercepting == ENABLED) {
+			return false;
+		}
+		if (CONFLICT_LOGGED.compareAndSet(false, true)) {
+			Logging.warn("calls via {} instrumentation get skipped, as {} instrumentation is in effect - Kafka classes have been woven ahead of time with a different configuration",
+					intercepting ? Instrumentation.INTERCEPTOR : Instrumentation.WEAVING, instrumentation());
+		}
+		return true;
+	}
+
+	/**
+	 * Called by the constructors of {@code ProducerConfig}.
+	 *
+	 * @param configs the configuration passed by the application, either a {@link Map} or {@link Properties}
+	 *
+	 * @return the given configuration if it lists {@link #PRODUCER_INTERCEPTOR} already or {@link #isEnabled()} is {@code false},
+	 * 		otherwise a copy of the same type listing it
+	 */
+	public static Map<?, ?> producerConfig(Map<?, ?> configs) {
+		if (conflicts(true)) {
+			return configs;
+		}
+		return withInterceptor(configs, PRODUCER_INTERCEPTOR);
+	}
+
+	/**
+	 * Called by the constructors of {@code ConsumerConfig}.
+	 *
+	 * @param configs the configuration passed by the application, either a {@link Map} or {@link Properties}
+	 *
+	 * @return the given configuration if it lists {@link #CONSUMER_INTERCEPTOR} already or {@link #isEnabled()} is {@code false},
+	 * 		otherwise a copy of the same type listing it
+	 */
+	public static Map<?, ?> consumerConfig(Map<?, ?> configs) {
+		if (conflicts(true)) {
+			return configs;
+		}
+		return withInterceptor(configs, CONSUMER_INTERCEPTOR);
+	}
+
+	/**
+	 * Never modifies the given configuration, the application may keep using it or may have passed an unmodifiable one.
+	 */
+	private static Map<?, ?> withInterceptor(Map<?, ?> configs, String interceptor) {
+		if (configs == null) {
+			return configs;
+		}
+		Object classes = configs.get(INTERCEPTOR_CLASSES);
+		Object merged;
+		if (classes == null) {
+			merged = interceptor;
+		} else if (classes instanceof String) {
+			String names = ((String) classes).trim();
+			if (contains(names.split(","), interceptor)) {
+				return configs;
+			}
+			merged = names.isEmpty() ? interceptor : names + "," + interceptor;
+		} else if (classes instanceof List) {
+			List<?> entries = (List<?>) classes;
+			if (contains(entries.toArray(), interceptor)) {
+				return configs;
+			}
+			List<Object> list = new ArrayList<Object>(entries);
+			list.add(interceptor);
+			merged = list;
+		} else {
+			Logging.warn("unexpected value of '" + INTERCEPTOR_CLASSES + "' ({}) - {} not added", classes.getClass().getName(), interceptor);
+			return configs;
+		}
+		Map<Object, Object> copy;
+		if (configs instanceof Properties) {
+			copy = new Properties();
+			copy.putAll(configs);
+		} else {
+			copy = new HashMap<Object, Object>(configs);
+		}
+		copy.put(INTERCEPTOR_CLASSES, merged);
+		Logging.fine("added {} to '" + INTERCEPTOR_CLASSES + "'", interceptor);
+		return copy;
+	}
+
+	/**
+	 * @return {@code true} if one of the given entries, class names or classes, denotes the given class
+	 */
+	private static boolean contains(Object[] entries, String className) {
+		for (Object entry : entries) {
+			if (entry == null) {
+				continue;
+			}
+			String name = (entry instanceof Class) ? ((Class<?>) entry).getName() : entry.toString().trim();
+			if (className.equals(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
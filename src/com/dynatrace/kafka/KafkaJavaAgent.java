@@ -1,11 +1,14 @@
 package com.dynatrace.kafka;
 
+import java.io.File;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.IllegalClassFormatException;
 import java.lang.instrument.Instrumentation;
 import java.security.ProtectionDomain;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
-import javassist.ClassClassPath;
 import javassist.ClassPool;
 
 /**
@@ -17,8 +20,165 @@ import javassist.ClassPool;
  */
 public class KafkaJavaAgent extends TransformationHelper implements ClassFileTransformer {
 	
-	/** printing out installation instructions **/
+	/**
+	 * System Property enabling the {@link DebugHook} probe points within the
+	 * constructors of {@code kafka.message.MessageAndOffset}, {@code kafka.message.ByteBufferMessageSet},
+	 * {@code kafka.api.TopicData} and {@code kafka.api.FetchResponsePartitionData}. Defaults to {@code false}.
+	 */
+	private static final String PROPERTY_DEBUG_HOOKS = "com.dynatrace.kafka.agent.debug.hooks";
+	
+	private static final boolean DEBUG_HOOKS = AgentProperties.getBoolean(PROPERTY_DEBUG_HOOKS, false);
+	
+	/**
+	 * System Property selecting the {@link Weaver} wrapping {@code KafkaProducer.send},
+	 * {@code ConsumerRecords$ConcatenatedIterable$1.makeNext} and {@code ConsumerIterator.next}.
+	 * Defaults to {@link Weaver#JAVASSIST}.
+	 */
+	private static final String PROPERTY_WEAVER = "com.dynatrace.kafka.agent.weaver";
+	
+	static final Weaver WEAVER = AgentProperties.getEnum(PROPERTY_WEAVER, Weaver.class, Weaver.JAVASSIST);
+	
+	/**
+	 * The packages containing all classes a {@link ClassTransformation} may be registered for.
+	 */
+	private static final String[] NAMESPACES = { "org/apache/kafka/", "kafka/" };
+	
+	/**
+	 * The registered {@link ClassTransformation}s by internal class name. Replaced
+	 * as a whole on every registration, so lookups do not need to lock.
+	 */
+	private static volatile Map<String, ClassTransformation> transformations = Collections.emptyMap();
+	
+	static {
+		register(new ClassTransformation("org/apache/kafka/clients/producer/KafkaProducer") {
+			@Override
+			public boolean isEnabled() {
+				return !Interceptors.isEnabled();
+			}
+			
+			@Override
+			public byte[] transform(ClassPool classPool, byte[] buffer) {
+				if (WEAVER == Weaver.BYTECODE) {
+					return BytecodeWeaver.transformKafkaProducer(buffer);
+				}
+				return EquinoxClassLoaderHelper.transformKafkaProducer(classPool, buffer);
+			}
+		});
+		register(new ClassTransformation("org/apache/kafka/clients/consumer/KafkaConsumer") {
+			@Override
+			public boolean isEnabled() {
+				return ConsumerBatching.isEnabled() && !Interceptors.isEnabled();
+			}
+			
+			@Override
+			public byte[] transform(ClassPool classPool, byte[] buffer) {
+				return EquinoxClassLoaderHelper.transformKafkaConsumer(classPool, buffer);
+			}
+		});
+		register(new ClassTransformation("org/apache/kafka/clients/consumer/ConsumerRecords$ConcatenatedIterable$1") {
+			@Override
+			public boolean isEnabled() {
+				return !Interceptors.isEnabled();
+			}
+			
+			@Override
+			public byte[] transform(ClassPool classPool, byte[] buffer) {
+				if (WEAVER == Weaver.BYTECODE) {
+					return BytecodeWeaver.transformConsumerRecordIterator(buffer);
+				}
+				return EquinoxClassLoaderHelper.transformConsumerRecordIterator(classPool, buffer);
+			}
+		});
+		register(new ClassTransformation("org/apache/kafka/clients/producer/ProducerConfig") {
+			@Override
+			public boolean isEnabled() {
+				return Interceptors.isEnabled();
+			}
+			
+			@Override
+			public byte[] transform(ClassPool classPool, byte[] buffer) {
+				return EquinoxClassLoaderHelper.transformProducerConfig(classPool, buffer);
+			}
+		});
+		register(new ClassTransformation("org/apache/kafka/clients/consumer/ConsumerConfig") {
+			@Override
+			public boolean isEnabled() {
+				return Interceptors.isEnabled();
+			}
+			
+			@Override
+			public byte[] transform(ClassPool classPool, byte[] buffer) {
+				return EquinoxClassLoaderHelper.transformConsumerConfig(classPool, buffer);
+			}
+		});
+		register(new ClassTransformation("kafka/consumer/ConsumerIterator") {
+			@Override
+			public byte[] transform(ClassPool classPool, byte[] buffer) {
+				if (WEAVER == Weaver.BYTECODE) {
+					return BytecodeWeaver.transformConsumerIterator(buffer);
+				}
+				return EquinoxClassLoaderHelper.transformConsumerIterator(classPool, buffer);
+			}
+		});
+		if (DEBUG_HOOKS) {
+			register(new ClassTransformation("kafka/message/MessageAndOffset") {
+				@Override
+				public byte[] transform(ClassPool classPool, byte[] buffer) {
+					return EquinoxClassLoaderHelper.transformMessageAndOffset(classPool, buffer);
+				}
+			});
+			register(new ClassTransformation("kafka/message/ByteBufferMessageSet") {
+				@Override
+				public byte[] transform(ClassPool classPool, byte[] buffer) {
+					return EquinoxClassLoaderHelper.transformByteBufferMessageSet(classPool, buffer);
+				}
+			});
+			register(new ClassTransformation("kafka/api/TopicData") {
+				@Override
+				public byte[] transform(ClassPool classPool, byte[] buffer) {
+					return EquinoxClassLoaderHelper.transformTopicData(classPool, buffer);
+				}
+			});
+			register(new ClassTransformation("kafka/api/FetchResponsePartitionData") {
+				@Override
+				public byte[] transform(ClassPool classPool, byte[] buffer) {
+					return EquinoxClassLoaderHelper.transformFetchResponsePartitionData(classPool, buffer);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Weaves a Kafka client jar ahead of time if called with {@code weave <in.jar> <out.jar> [<dependency.jar> ...]},
+	 * see {@link OfflineWeaver}, otherwise prints out installation instructions.
+	 */
 	public static void main(String[] args) {
+		if ((args.length > 0) && "weave".equals(args[0])) {
+			System.exit(weave(args));
+		}
+		printInstructions();
+	}
+
+	private static int weave(String[] args) {
+		if (args.length < 3) {
+			System.err.println("Usage: java -jar dynatrace-kafka-agent.jar weave <in.jar> <out.jar> [<dependency.jar> ...]");
+			return 2;
+		}
+		String[] classPath = new String[args.length - 3];
+		System.arraycopy(args, 3, classPath, 0, classPath.length);
+		try {
+			TransformationHelper.loadStubClasses();
+			int woven = OfflineWeaver.weave(new File(args[1]), new File(args[2]), classPath);
+			System.out.println("wove " + woven + " classes of " + args[1] + " into " + args[2]);
+			return (woven > 0) ? 0 : 1;
+		} catch (Exception e) {
+			System.err.println("weaving " + args[1] + " failed: " + e);
+			return 1;
+		}
+	}
+
+	/** printing out installation instructions **/
+	private static void printInstructions() {
 		System.out.println("Installation Instructions:");
 		System.out.println("  * Stop your WLP Server Instance");
 		System.out.println("  * Copy this file onto the host where WLP is getting launched into a folder of your choice");
@@ -45,6 +205,9 @@ public class KafkaJavaAgent extends TransformationHelper implements ClassFileTra
 		System.out.println("  * Just extract the JAR file into a folder");
 		System.out.println("  * Import the folder as Eclipse Project into Eclipse Mars.1 (or later)");
 		System.out.println("  * Create a modified JAR file via ANT using the included build.xml");
+		System.out.println();
+		System.out.println("Weaving ahead of time (no -javaagent needed, this JAR file still needs to be on the class path):");
+		System.out.println("  * java -jar dynatrace-kafka-agent.jar weave <kafka-clients.jar> <woven.jar> [<dependency.jar> ...]");
 	}
 
 	/**
@@ -52,97 +215,108 @@ public class KafkaJavaAgent extends TransformationHelper implements ClassFileTra
 	 */
     public static void premain(String agentArgs, Instrumentation inst) {
         try {
+            TransformationHelper.loadStubClasses();
             inst.addTransformer(new KafkaJavaAgent(), true);
+            if (AdkBootstrap.isEager()) {
+            	AdkBootstrap.start();
+            }
         } catch (Throwable t) {
         	Logging.error(null, t);
         }
     }
 
     /**
-     * The classes we are potentially transforming here are
-     * <ul>
-     * <li>org/eclipse/osgi/internal/loader/EquinoxClassLoader</li>
-     * <li>org/eclipse/osgi/internal/loader/ModuleClassLoader</li>
-     * </ul>
-     * It might be of interest to also add {@code com.ibm.ws.webcontainer.servlet.ServletWrapper} here but
-     * this Agent actually was NECESSARY because a Class File Transformer somehow is never getting passed
-     * the byte code of that class. Therefore until further notice not necessary.<br />
+     * Called by the JVM for every class getting loaded, so classes outside of the
+     * namespaces of Kafka are passed through after a prefix check. Kafka classes
+     * are looked up in the {@link ClassTransformation}s registered via {@link #register(ClassTransformation)}.<br />
      */
 	@Override
 	public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
 			ProtectionDomain protectionDomain, byte[] buffer) throws IllegalClassFormatException {
-		if (className.equals("kafka/message/MessageAndOffset")) {
-			try {
-				final ClassPool classPool = ClassPool.getDefault();
-				
-				Class<?> clazzCrc32 = loader.loadClass("kafka.message.Message");
-				classPool.insertClassPath(new ClassClassPath(clazzCrc32));
-				buffer = EquinoxClassLoaderHelper.transformMessageAndOffset(classPool, buffer);
-			} catch (Throwable t) {
-				Logging.error("interception of loading of kafka.message.MessageAndOffset failed", t);
-			}
-		} else if (className.equals("org/apache/kafka/clients/producer/KafkaProducer")) {
-			try {
-				final ClassPool classPool = ClassPool.getDefault();
-				
-				Class<?> clazzCrc32 = loader.loadClass("org.apache.kafka.clients.producer.Callback");
-				classPool.insertClassPath(new ClassClassPath(clazzCrc32));
-				buffer = EquinoxClassLoaderHelper.transformKafkaProducer(classPool, buffer);
-			} catch (Throwable t) {
-				Logging.error("interception of loading of org.apache.kafka.clients.producer.KafkaProducer failed", t);
-			}
-		} else if (className.equals("kafka/consumer/ConsumerIterator")) {
-			try {
-				final ClassPool classPool = ClassPool.getDefault();
-				
-				Class<?> clazzCrc32 = loader.loadClass("kafka.consumer.Consumer");
-				classPool.insertClassPath(new ClassClassPath(clazzCrc32));
-				buffer = EquinoxClassLoaderHelper.transformConsumerIterator(classPool, buffer);
-			} catch (Throwable t) {
-				Logging.error("interception of loading of kafka.consumer.ConsumerIterator", t);
+		if (!isKafkaClass(className)) {
+			return buffer;
+		}
+		final ClassTransformation transformation = transformations.get(className);
+		if (transformation == null) {
+			return buffer;
+		}
+		if (!transformation.isEnabled()) {
+			if (ClassFileRewriter.isWoven(buffer)) {
+				OfflineWeaver.verify(protectionDomain, transformation);
 			}
-		} else if (className.equals("kafka/message/ByteBufferMessageSet")) {
+			return buffer;
+		}
+		AdkBootstrap.start();
+		if (ClassFileRewriter.isWoven(buffer)) {
+			Logging.info("{} has been woven ahead of time", transformation);
+			OfflineWeaver.verify(protectionDomain, transformation);
+			return buffer;
+		}
+		final long start = System.nanoTime();
+		final String key = TransformationCache.key(className, buffer);
+		byte[] transformed = (key == null) ? null : TransformationCache.get(key);
+		if (transformed != null) {
+			Logging.info("reusing woven byte code of {}", transformation);
+		} else {
 			try {
-				final ClassPool classPool = ClassPool.getDefault();
-				
-				Class<?> clazzCrc32 = loader.loadClass("kafka.message.MessageSet");
-				classPool.insertClassPath(new ClassClassPath(clazzCrc32));
-				buffer = EquinoxClassLoaderHelper.transformByteBufferMessageSet(classPool, buffer);
+				transformed = ClassPools.transform(loader, transformation, buffer);
 			} catch (Throwable t) {
-				Logging.error("interception of loading of kafka.message.MessageAndOffset failed", t);
+				Logging.error("interception of loading of " + transformation + " failed", t);
 			}
-		} else if (className.equals("kafka/api/TopicData")) {
-			try {
-				final ClassPool classPool = ClassPool.getDefault();
-				
-				Class<?> clazzCrc32 = loader.loadClass("kafka.api.Request");
-				classPool.insertClassPath(new ClassClassPath(clazzCrc32));
-				buffer = EquinoxClassLoaderHelper.transformTopicData(classPool, buffer);
-			} catch (Throwable t) {
-				Logging.error("interception of loading of kafka.api.TopicData failed", t);
+			if ((transformed == null) || (transformed == buffer)) {
+				return buffer;
 			}
-		} else if (className.equals("kafka/api/FetchResponsePartitionData")) {
-			try {
-				final ClassPool classPool = ClassPool.getDefault();
-				
-				Class<?> clazzCrc32 = loader.loadClass("kafka.api.Request");
-				classPool.insertClassPath(new ClassClassPath(clazzCrc32));
-				buffer = EquinoxClassLoaderHelper.transformFetchResponsePartitionData(classPool, buffer);
-			} catch (Throwable t) {
-				Logging.error("interception of loading of kafka.api.FetchResponsePartitionData failed", t);
+			if (key != null) {
+				TransformationCache.put(key, transformed);
 			}
-		} else if (className.equals("org/apache/kafka/clients/consumer/ConsumerRecords$ConcatenatedIterable$1")) {
-			try {
-				final ClassPool classPool = ClassPool.getDefault();
-				
-				Class<?> clazzCrc32 = loader.loadClass("org.apache.kafka.clients.consumer.ConsumerRecord");
-				classPool.insertClassPath(new ClassClassPath(clazzCrc32));
-				buffer = EquinoxClassLoaderHelper.transformConsumerRecordIterator(classPool, buffer);
-			} catch (Throwable t) {
-				Logging.error("interception of loading of kafka.api.FetchResponsePartitionData failed", t);
+		}
+		AgentMetrics.transformation(className).record(System.nanoTime() - start);
+		AgentMetrics.start();
+		return transformed;
+	}
+
+	/**
+	 * @param className the internal name of a class
+	 *
+	 * @return the {@link ClassTransformation} registered for the given class or {@code null} if there is none
+	 */
+	static ClassTransformation transformation(String className) {
+		return transformations.get(className);
+	}
+
+	/**
+	 * @param className the internal name of a class, may be {@code null}
+	 * 
+	 * @return {@code true} if the class lives within one of the namespaces of Kafka
+	 */
+	static boolean isKafkaClass(String className) {
+		if (className == null) {
+			return false;
+		}
+		for (String namespace : NAMESPACES) {
+			if (className.startsWith(namespace)) {
+				return true;
 			}
 		}
-		return buffer;
+		return false;
+	}
+
+	/**
+	 * Registers a {@link ClassTransformation}, replacing any transformation
+	 * registered for the same class before. Takes effect for classes loaded afterwards.
+	 * 
+	 * @param transformation the {@link ClassTransformation} to register
+	 * 
+	 * @throws IllegalArgumentException if the class to transform does not live within
+	 * 		{@code org/apache/kafka/} or {@code kafka/}
+	 */
+	public static synchronized void register(ClassTransformation transformation) {
+		if (!isKafkaClass(transformation.getClassName())) {
+			throw new IllegalArgumentException(transformation + " is not a Kafka class");
+		}
+		Map<String, ClassTransformation> registered = new HashMap<>(transformations);
+		registered.put(transformation.getClassName(), transformation);
+		transformations = registered;
 	}
 
 }
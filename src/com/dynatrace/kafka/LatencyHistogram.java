@@ -0,0 +1,132 @@
+package com.dynatrace.kafka;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of durations in nanoseconds.<br />
+ * <br />
+ * Like an HDR histogram, values are counted in buckets growing exponentially,
+ * each split into {@link #SUB_BUCKETS} linear sub buckets. Every recorded value
+ * therefore is reported with a relative error of at most 12.5%, using a fixed
+ * amount of memory for the whole range of {@code long}.
+ */
+public final class LatencyHistogram {
+
+	/**
+	 * The number of linear sub buckets per power of two, as bits.
+	 */
+	private static final int SUB_BUCKET_BITS = 3;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final StripedCounter count = new StripedCounter();
+	private final StripedCounter total = new StripedCounter();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records the given duration.
+	 *
+	 * @param nanos the duration in nanoseconds, negative values are recorded as {@code 0}
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		counts.incrementAndGet(index(nanos));
+		count.increment();
+		total.add(nanos);
+		long current = max.get();
+		while ((nanos > current) && !max.compareAndSet(current, nanos)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * @return the number of recorded durations
+	 */
+	public long count() {
+		return count.sum();
+	}
+
+	/**
+	 * @return the sum of all recorded durations in nanoseconds
+	 */
+	public long total() {
+		return total.sum();
+	}
+
+	/**
+	 * @return the longest recorded duration in nanoseconds
+	 */
+	public long max() {
+		return max.get();
+	}
+
+	/**
+	 * @param percentile the percentile to resolve, between {@code 0.0} and {@code 100.0}
+	 *
+	 * @return the upper bound of the bucket holding the given percentile in nanoseconds,
+	 * 		{@code 0} if nothing has been recorded yet
+	 */
+	public long percentile(double percentile) {
+		long[] snapshot = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			count += snapshot[i];
+		}
+		if (count == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil((percentile / 100.0) * count);
+		if (rank < 1) {
+			rank = 1;
+		}
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return Math.min(upperBound(i), max());
+			}
+		}
+		return max();
+	}
+
+	private static int index(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int highestBit = 63 - Long.numberOfLeadingZeros(value);
+		int shift = highestBit - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+		return ((shift + 1) << SUB_BUCKET_BITS) + subBucket;
+	}
+
+	private static long upperBound(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = (index >>> SUB_BUCKET_BITS) - 1;
+		long subBucket = index & (SUB_BUCKETS - 1);
+		long lowerBound = (SUB_BUCKETS + subBucket) << shift;
+		return lowerBound + (1L << shift) - 1;
+	}
+
+	/**
+	 * @return count, mean, 50th, 99th percentile and maximum in microseconds
+	 */
+	@Override
+	public String toString() {
+		long count = count();
+		long mean = (count == 0) ? 0 : total() / count;
+		return "count=" + count
+				+ " mean=" + (mean / 1000) + "us"
+				+ " p50=" + (percentile(50) / 1000) + "us"
+				+ " p99=" + (percentile(99) / 1000) + "us"
+				+ " max=" + (max() / 1000) + "us";
+	}
+}
@@ -0,0 +1,285 @@
+package com.dynatrace.kafka;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes log messages on a thread of its own, so threads logging never wait for
+ * {@link System#out} or the disk.<br />
+ * <br />
+ * Messages are handed over via a {@link RingBuffer} and formatted only when getting
+ * written. If the buffer is full, messages are dropped and the number of dropped
+ * messages is logged later on. Messages go to {@link System#out} unless
+ * {@link #PROPERTY_LOG_FILE} is set, in which case they go to a {@link RollingFile}.
+ * Messages still waiting are written when the JVM shuts down.
+ */
+final class LogAppender extends Thread {
+
+	/**
+	 * System Property for a file to write log messages to instead of {@link System#out}.
+	 */
+	private static final String PROPERTY_LOG_FILE = "com.dynatrace.kafka.agent.log.file";
+
+	/**
+	 * System Property for the size in megabytes after which the log file gets rolled over.
+	 * Defaults to {@code 10}.
+	 */
+	private static final String PROPERTY_LOG_FILE_SIZE = "com.dynatrace.kafka.agent.log.file.size.mb";
+
+	/**
+	 * System Property for the number of log files kept. Defaults to {@code 5}.
+	 */
+	private static final String PROPERTY_LOG_FILE_COUNT = "com.dynatrace.kafka.agent.log.file.count";
+
+	/**
+	 * System Property for the number of log messages which may wait for getting written.
+	 * Defaults to {@code 8192}.
+	 */
+	private static final String PROPERTY_LOG_QUEUE_CAPACITY = "com.dynatrace.kafka.agent.log.queue.capacity";
+
+	/**
+	 * How long the JVM shutdown waits for pending log messages to get written.
+	 */
+	private static final long SHUTDOWN_TIMEOUT_MILLIS = 1000;
+
+	/**
+	 * A log message as passed by the logging thread.
+	 */
+	static final class Event {
+
+		final String level;
+		final String thread;
+		final long time;
+		final String format;
+		final int argCount;
+		final Object arg1;
+		final Object arg2;
+		final Object arg3;
+		final Throwable throwable;
+		final long suppressed;
+
+		/**
+		 * The arguments are rendered on the thread of the {@link LogAppender}, so they must not
+		 * change after getting passed, see {@link Logging#render(Object)}.
+		 */
+		Event(String level, String format, int argCount, Object arg1, Object arg2, Object arg3, Throwable throwable, long suppressed) {
+			this.level = level;
+			this.thread = Thread.currentThread().getName();
+			this.time = System.currentTimeMillis();
+			this.format = format;
+			this.argCount = argCount;
+			this.arg1 = arg1;
+			this.arg2 = arg2;
+			this.arg3 = arg3;
+			this.throwable = throwable;
+			this.suppressed = suppressed;
+		}
+	}
+
+	private final RingBuffer<Event> queue = new RingBuffer<>(queueCapacity());
+	private final AtomicLong dropped = new AtomicLong();
+	private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+	private RollingFile file = resolveFile();
+
+	private LogAppender() {
+		super("dynatrace-kafka-agent-logging");
+		setDaemon(true);
+	}
+
+	/**
+	 * @return a started {@link LogAppender} or {@code null} if no thread could be started
+	 */
+	static LogAppender create() {
+		try {
+			final LogAppender appender = new LogAppender();
+			appender.start();
+			Runtime.getRuntime().addShutdownHook(new Thread("dynatrace-kafka-agent-logging-shutdown") {
+				@Override
+				public void run() {
+					appender.shutdown();
+				}
+			});
+			return appender;
+		} catch (Throwable t) {
+			System.err.println("[DYNATRACE-KAFKA-AGENT] asynchronous logging not available (" + t + ") - logging synchronously");
+			return null;
+		}
+	}
+
+	private static int queueCapacity() {
+		long capacity = longProperty(PROPERTY_LOG_QUEUE_CAPACITY, 8192);
+		if ((capacity < 1) || (capacity > RingBuffer.MAX_CAPACITY)) {
+			System.err.println("Invalid value '" + capacity + "' for System Property '" + PROPERTY_LOG_QUEUE_CAPACITY + "' - falling back to '8192'");
+			return 8192;
+		}
+		return (int) capacity;
+	}
+
+	private static RollingFile resolveFile() {
+		String path = System.getProperty(PROPERTY_LOG_FILE);
+		if ((path == null) || path.isEmpty()) {
+			return null;
+		}
+		long maxBytes = longProperty(PROPERTY_LOG_FILE_SIZE, 10) * 1024 * 1024;
+		int count = (int) longProperty(PROPERTY_LOG_FILE_COUNT, 5);
+		return new RollingFile(new File(path), maxBytes, count);
+	}
+
+	/**
+	 * Reads a numeric System Property without {@link AgentProperties}, which logs invalid values itself.
+	 */
+	static long longProperty(String name, long defaultValue) {
+		String value = System.getProperty(name);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			System.err.println("Invalid value '" + value + "' for System Property '" + name + "' - falling back to '" + defaultValue + "'");
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Hands over the given {@link Event} for getting written, dropping it if too many are waiting.
+	 */
+	void append(Event event) {
+		if (!queue.offer(event)) {
+			dropped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Writes the given {@link Event} right away, for logging without a {@link LogAppender}.
+	 */
+	static void writeSynchronously(Event event) {
+		if (event.format != null) {
+			System.out.println(format(event));
+		}
+		if (event.throwable != null) {
+			System.out.println(prefix(event) + throwableToString(event.throwable));
+		}
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			Event event;
+			try {
+				event = queue.take();
+			} catch (InterruptedException e) {
+				// shutting down, the buffer has been drained already
+				flush();
+				return;
+			}
+			do {
+				write(event);
+				event = queue.poll();
+			} while (event != null);
+			flush();
+		}
+	}
+
+	private void shutdown() {
+		interrupt();
+		try {
+			join(SHUTDOWN_TIMEOUT_MILLIS);
+		} catch (InterruptedException e) {
+			// the JVM is going down anyway
+		}
+	}
+
+	private void write(Event event) {
+		long droppedEvents = dropped.getAndSet(0);
+		if (droppedEvents > 0) {
+			writeLine("[" + getName() + "] [DYNATRACE-KAFKA-AGENT] [WARNING] " + droppedEvents + " log messages dropped", event.time);
+		}
+		if (event.format != null) {
+			writeLine(format(event), event.time);
+		}
+		if (event.throwable != null) {
+			writeLine(prefix(event) + throwableToString(event.throwable), event.time);
+		}
+	}
+
+	private void writeLine(String line, long time) {
+		if (file != null) {
+			try {
+				file.writeLine(dateFormat.format(new Date(time)) + " " + line);
+				return;
+			} catch (IOException e) {
+				System.err.println("[DYNATRACE-KAFKA-AGENT] writing to log file failed (" + e + ") - logging to stdout");
+				try {
+					file.close();
+				} catch (IOException e2) {
+					// nothing left to do
+				}
+				file = null;
+			}
+		}
+		System.out.println(line);
+	}
+
+	private void flush() {
+		if (file != null) {
+			try {
+				file.flush();
+			} catch (IOException e) {
+				// reported by the next write
+			}
+		}
+	}
+
+	private static String prefix(Event event) {
+		return "[" + event.thread + "] [DYNATRACE-KAFKA-AGENT] [" + event.level + "] ";
+	}
+
+	private static String format(Event event) {
+		StringBuilder sb = new StringBuilder(prefix(event));
+		if (event.format != null) {
+			int start = 0;
+			for (int i = 0; i < event.argCount; i++) {
+				int placeholder = event.format.indexOf("{}", start);
+				if (placeholder < 0) {
+					break;
+				}
+				sb.append(event.format, start, placeholder).append((i == 0) ? event.arg1 : (i == 1) ? event.arg2 : event.arg3);
+				start = placeholder + 2;
+			}
+			sb.append(event.format, start, event.format.length());
+		}
+		if (event.suppressed > 0) {
+			sb.append(" (").append(event.suppressed).append(" similar messages suppressed)");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Helper method for getting a string representation of the given
+	 * {@link Throwable}s stacktrace.
+	 *
+	 * @param t the {@link Throwable} to produce a string representation for
+	 *
+	 * @return the Stack Trace of the given {@link Throwable} as String.
+	 */
+	private static String throwableToString(Throwable t) {
+		try (
+			StringWriter sw = new StringWriter();
+			PrintWriter pw = new PrintWriter(sw);
+		) {
+			t.printStackTrace(pw);
+			pw.flush();
+			return sw.getBuffer().toString();
+		} catch (Throwable t2) {
+			t.printStackTrace(System.err);
+			t2.printStackTrace(System.err);
+			return String.valueOf(t);
+		}
+	}
+}
@@ -1,10 +1,18 @@
 package com.dynatrace.kafka;
 
-import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Helper class for logging
+ * Helper class for logging<br />
+ * <br />
+ * The Log {@link Level} is checked before anything else happens, so disabled log
+ * messages cost neither formatting nor allocations. Pass the variable parts of a
+ * message as arguments replacing {@code {}} rather than concatenating them, otherwise
+ * the concatenation happens before the Log {@link Level} gets checked. Enabled messages
+ * are written by the {@link LogAppender} on a thread of its own.
  * 
  * @author reinhard.pilz@dynatrace.com
  *
@@ -17,9 +25,9 @@ public final class Logging {
 	 * Possible values are
 	 * <ul>
 	 * <li>NONE which prevents any logging at all</li>
-	 * <li>INFO which allows all log messages to end up in {@link System#out}</li>
-	 * <li>WARNING which allows all log messages for {@link Level#WARNING} and {@link Level#ERROR} to end up in {@link System#out}</li>
-	 * <li>ERROR which allows all log messages for {@link Level#ERROR} to end up in {@link System#out}</li>
+	 * <li>INFO which allows all log messages to end up in the log</li>
+	 * <li>WARNING which allows all log messages for {@link Level#WARNING} and {@link Level#ERROR} to end up in the log</li>
+	 * <li>ERROR which allows all log messages for {@link Level#ERROR} to end up in the log</li>
 	 * </ul>
 	 */
 	private static final String PROPERTY_LOG_LEVEL = "com.dynatrace.comerica.agent.loglevel";
@@ -77,30 +85,127 @@ public final class Logging {
 	}
 	
 	/**
-	 * Logs out the given {@code message} using the given
-	 * {@link Level} to {@link System#out}.<br />
-	 * <br />
-	 * If the given {@code message} is {@code null} no log output is getting produced<br />
-	 * If the given {@link Level} is {@code null} the Log {@link Level} {@link Level#INFO} is being assumed.
-	 * if the given {@link Level}s severity is not at least as high as the severity of {@link #LEVEL} no log output is getting produced.
+	 * System Property for the number of milliseconds between two log outputs of the same
+	 * message carrying a {@link Throwable}. Repetitions in between are only counted. Defaults to {@code 10000}.
+	 */
+	private static final String PROPERTY_LOG_ERROR_INTERVAL = "com.dynatrace.kafka.agent.log.error.interval.ms";
+	
+	private static final long ERROR_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(LogAppender.longProperty(PROPERTY_LOG_ERROR_INTERVAL, 10000));
+	
+	/**
+	 * The maximum number of distinct messages rate limited, further ones are always logged.
+	 */
+	private static final int MAX_RATE_LIMITED = 1024;
+	
+	/**
+	 * Per message carrying a {@link Throwable}, the time from which on it may get logged again
+	 * and the number of repetitions suppressed until then.
+	 */
+	private static final ConcurrentMap<String, AtomicLong[]> RATE_LIMITS = new ConcurrentHashMap<>();
+	
+	/**
+	 * Writes log messages, {@code null} if log messages need to get written synchronously.
+	 */
+	private static final LogAppender APPENDER = (LEVEL == Level.NONE) ? null : LogAppender.create();
+	
+	/**
+	 * @param level the Log {@link Level} to check
 	 * 
-	 * @param message the message to log out
-	 * @param level the Log {@link Level} to log out with.
+	 * @return {@code true} if messages with the given {@link Level} end up in the log
 	 */
-	private static void log(String message, Level level) {
-		if (message == null) {
+	private static boolean isEnabled(Level level) {
+		return level.includes(LEVEL);
+	}
+	
+	/**
+	 * @return {@code true} if messages logged via {@link #fine(String)} end up in the log
+	 */
+	public static boolean isFineEnabled() {
+		return isEnabled(Level.FINE);
+	}
+	
+	/**
+	 * @return {@code true} if messages logged via {@link #info(String)} end up in the log
+	 */
+	public static boolean isInfoEnabled() {
+		return isEnabled(Level.INFO);
+	}
+	
+	/**
+	 * Hands over a log message to the {@link LogAppender}. The message is formatted
+	 * on the thread of the {@link LogAppender}, replacing the first {@code argCount}
+	 * occurrences of {@code {}} within {@code format} with {@code arg1} to {@code arg3}.
+	 * 
+	 * @param level the Log {@link Level} to log out with, already checked via {@link #isEnabled(Level)}
+	 */
+	private static void log(Level level, String format, int argCount, Object arg1, Object arg2, Object arg3, Throwable t) {
+		long suppressed = 0;
+		if (t != null) {
+			suppressed = permit((format == null) ? t.getClass().getName() : format);
+			if (suppressed < 0) {
+				return;
+			}
+		} else if (format == null) {
 			return;
 		}
-		if (level == null) {
-			level = Level.INFO;
+		LogAppender.Event event = new LogAppender.Event(level.name(), format, argCount, render(arg1), render(arg2), render(arg3), t, suppressed);
+		if (APPENDER == null) {
+			LogAppender.writeSynchronously(event);
+		} else {
+			APPENDER.append(event);
 		}
-		if (level.includes(LEVEL)) {
-			System.out.println("[" + Thread.currentThread().getName() + "] [DYNATRACE-KAFKA-AGENT] [" + level.name() + "] " + message);
+	}
+	
+	/**
+	 * Renders an argument on the calling thread unless it is immutable, as the
+	 * {@link LogAppender} formats the message later on, while the caller may already
+	 * have modified the argument.
+	 * 
+	 * @param arg an argument of a log message, may be {@code null}
+	 * 
+	 * @return the given argument if it is immutable, otherwise its string representation
+	 */
+	static Object render(Object arg) {
+		if ((arg == null) || (arg instanceof String) || (arg instanceof Integer) || (arg instanceof Long)
+				|| (arg instanceof Boolean) || (arg instanceof Enum) || (arg instanceof Class)) {
+			return arg;
 		}
+		return String.valueOf(arg);
 	}
 
 	/**
-	 * Logs out the given {@code message} to {@link System#out} with {@link Level#INFO}
+	 * Rate limits log messages carrying a {@link Throwable}, so an error occurring
+	 * for every record does not flood the log.
+	 * 
+	 * @param key the message
+	 * 
+	 * @return the number of repetitions suppressed since the message was logged last
+	 * 		or {@code -1} if the message needs to get suppressed
+	 */
+	private static long permit(String key) {
+		long now = System.nanoTime();
+		AtomicLong[] rateLimit = RATE_LIMITS.get(key);
+		if (rateLimit == null) {
+			if (RATE_LIMITS.size() >= MAX_RATE_LIMITED) {
+				return 0;
+			}
+			rateLimit = new AtomicLong[] { new AtomicLong(now + ERROR_INTERVAL_NANOS), new AtomicLong() };
+			AtomicLong[] existing = RATE_LIMITS.putIfAbsent(key, rateLimit);
+			if (existing == null) {
+				return 0;
+			}
+			rateLimit = existing;
+		}
+		long next = rateLimit[0].get();
+		if ((now - next >= 0) && rateLimit[0].compareAndSet(next, now + ERROR_INTERVAL_NANOS)) {
+			return rateLimit[1].getAndSet(0);
+		}
+		rateLimit[1].incrementAndGet();
+		return -1;
+	}
+
+	/**
+	 * Logs out the given {@code message} with {@link Level#INFO}
 	 * unless {@link #LEVEL} prevents that from happening.<br />
 	 * <br />
 	 * If the given {@code message} is {@code null} no log output is getting produced.
@@ -108,11 +213,40 @@ public final class Logging {
 	 * @param message the message to log out
 	 */
 	public static void info(String message) {
-		log(message, Level.INFO);
+		if (isEnabled(Level.INFO)) {
+			log(Level.INFO, message, 0, null, null, null, null);
+		}
+	}
+	
+	/**
+	 * Like {@link #info(String)}, replacing the first {@code {}} within {@code format} with {@code arg}.
+	 */
+	public static void info(String format, Object arg) {
+		if (isEnabled(Level.INFO)) {
+			log(Level.INFO, format, 1, arg, null, null, null);
+		}
 	}
 	
 	/**
-	 * Logs out the given {@code message} to {@link System#out} with {@link Level#FINE}
+	 * Like {@link #info(String)}, replacing the first two {@code {}} within {@code format} with {@code arg1} and {@code arg2}.
+	 */
+	public static void info(String format, Object arg1, Object arg2) {
+		if (isEnabled(Level.INFO)) {
+			log(Level.INFO, format, 2, arg1, arg2, null, null);
+		}
+	}
+	
+	/**
+	 * Like {@link #info(String)}, replacing the first three {@code {}} within {@code format} with {@code arg1} to {@code arg3}.
+	 */
+	public static void info(String format, Object arg1, Object arg2, Object arg3) {
+		if (isEnabled(Level.INFO)) {
+			log(Level.INFO, format, 3, arg1, arg2, arg3, null);
+		}
+	}
+	
+	/**
+	 * Logs out the given {@code message} with {@link Level#FINE}
 	 * unless {@link #LEVEL} prevents that from happening.<br />
 	 * <br />
 	 * If the given {@code message} is {@code null} no log output is getting produced.
@@ -120,11 +254,40 @@ public final class Logging {
 	 * @param message the message to log out
 	 */
 	public static void fine(String message) {
-		log(message, Level.FINE);
+		if (isEnabled(Level.FINE)) {
+			log(Level.FINE, message, 0, null, null, null, null);
+		}
+	}
+	
+	/**
+	 * Like {@link #fine(String)}, replacing the first {@code {}} within {@code format} with {@code arg}.
+	 */
+	public static void fine(String format, Object arg) {
+		if (isEnabled(Level.FINE)) {
+			log(Level.FINE, format, 1, arg, null, null, null);
+		}
+	}
+	
+	/**
+	 * Like {@link #fine(String)}, replacing the first two {@code {}} within {@code format} with {@code arg1} and {@code arg2}.
+	 */
+	public static void fine(String format, Object arg1, Object arg2) {
+		if (isEnabled(Level.FINE)) {
+			log(Level.FINE, format, 2, arg1, arg2, null, null);
+		}
+	}
+	
+	/**
+	 * Like {@link #fine(String)}, replacing the first three {@code {}} within {@code format} with {@code arg1} to {@code arg3}.
+	 */
+	public static void fine(String format, Object arg1, Object arg2, Object arg3) {
+		if (isEnabled(Level.FINE)) {
+			log(Level.FINE, format, 3, arg1, arg2, arg3, null);
+		}
 	}
 	
 	/**
-	 * Logs out the given {@code message} to {@link System#out} with {@link Level#WARNING}
+	 * Logs out the given {@code message} with {@link Level#WARNING}
 	 * unless {@link #LEVEL} prevents that from happening.<br />
 	 * <br />
 	 * If the given {@code message} is {@code null} no log output is getting produced.
@@ -132,45 +295,66 @@ public final class Logging {
 	 * @param message the message to log out
 	 */
 	public static void warn(String message) {
-		log(message, Level.WARNING);
+		if (isEnabled(Level.WARNING)) {
+			log(Level.WARNING, message, 0, null, null, null, null);
+		}
 	}
 	
 	/**
-	 * Logs out the given {@code message} to {@link System#out} with {@link Level#ERROR}
-	 * unless {@link #LEVEL} prevents that from happening.<br />
+	 * Like {@link #warn(String)}, replacing the first {@code {}} within {@code format} with {@code arg}.
+	 */
+	public static void warn(String format, Object arg) {
+		if (isEnabled(Level.WARNING)) {
+			log(Level.WARNING, format, 1, arg, null, null, null);
+		}
+	}
+	
+	/**
+	 * Like {@link #warn(String)}, replacing the first two {@code {}} within {@code format} with {@code arg1} and {@code arg2}.
+	 */
+	public static void warn(String format, Object arg1, Object arg2) {
+		if (isEnabled(Level.WARNING)) {
+			log(Level.WARNING, format, 2, arg1, arg2, null, null);
+		}
+	}
+	
+	/**
+	 * Like {@link #warn(String)}, replacing the first three {@code {}} within {@code format} with {@code arg1} to {@code arg3}.
+	 */
+	public static void warn(String format, Object arg1, Object arg2, Object arg3) {
+		if (isEnabled(Level.WARNING)) {
+			log(Level.WARNING, format, 3, arg1, arg2, arg3, null);
+		}
+	}
+	
+	/**
+	 * Logs out the given {@code message} and the stack trace of the given {@link Throwable}
+	 * with {@link Level#WARNING} unless {@link #LEVEL} prevents that from happening.<br />
 	 * <br />
-	 * If the given {@code message} is {@code null} no log output is getting produced.
+	 * Repetitions of the same {@code message} are logged at most once per {@link #PROPERTY_LOG_ERROR_INTERVAL}.
 	 * 
 	 * @param message the message to log out
+	 * @param t the {@link Throwable} to log out the stack trace of
 	 */
-	public static void error(String message, Throwable t) {
-		log(message, Level.INFO);
-		log(throwableToString(t), Level.INFO);
+	public static void warn(String message, Throwable t) {
+		if (isEnabled(Level.WARNING)) {
+			log(Level.WARNING, message, 0, null, null, null, t);
+		}
 	}
 	
 	/**
-	 * Helper method for getting a string representation of the given
-	 * {@link Throwable}s stacktrace.
-	 * 
-	 * @param t the {@link Throwable} to produce a string representation for
+	 * Logs out the given {@code message} and the stack trace of the given {@link Throwable}
+	 * with {@link Level#INFO} unless {@link #LEVEL} prevents that from happening.<br />
+	 * <br />
+	 * If the given {@code message} is {@code null} only the stack trace is getting logged.
+	 * Repetitions of the same {@code message} are logged at most once per {@link #PROPERTY_LOG_ERROR_INTERVAL}.
 	 * 
-	 * @return the Stack Trace of the given {@link Throwable} as String.
-	 */
-	private static final String throwableToString(Throwable t) {
-		if (t == null) {
-			return null;
-		}
-		try (
-			StringWriter sw = new StringWriter();
-			PrintWriter pw = new PrintWriter(sw);
-		) {
-			t.printStackTrace(pw);
-			pw.flush();
-			return sw.getBuffer().toString();
-		} catch (Throwable t2) {
-			t.printStackTrace(System.err);
-			t2.printStackTrace(System.err);
-			return null;
+	 * @param message the message to log out
+	 * @param t the {@link Throwable} to log out the stack trace of
+	 */
+	public static void error(String message, Throwable t) {
+		if (isEnabled(Level.INFO)) {
+			log(Level.INFO, message, 0, null, null, null, t);
 		}
 	}
 }
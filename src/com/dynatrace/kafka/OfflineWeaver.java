@@ -0,0 +1,246 @@
+package com.dynatrace.kafka;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.util.Enumeration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+import javassist.NotFoundException;
+
+/**
+ * Applies the registered {@link ClassTransformation}s to the classes of a Kafka client
+ * jar ahead of time, so applications using the woven jar need neither {@code -javaagent}
+ * nor any transformation when loading Kafka classes. This Agent's jar still needs to be
+ * on the class path, as the woven classes call into it.<br />
+ * <br />
+ * Signatures are removed from the woven jar, as they do not match anymore. Classes
+ * woven before are left untouched, see {@link ClassFileRewriter#isWoven(byte[])}, and
+ * the Agent leaves them untouched as well if it is attached nevertheless.<br />
+ * <br />
+ * The manifest of a woven jar records the configuration it got woven with. If the
+ * Agent is attached with a different one, it logs a warning once per jar, see
+ * {@link #verify(ProtectionDomain, ClassTransformation)}, and skips the calls of
+ * woven classes conflicting with its {@link Instrumentation}, see {@link Interceptors#conflicts(boolean)}.
+ */
+final class OfflineWeaver {
+
+	/**
+	 * Added to the main attributes of the manifest of woven jars, holding the {@link Weaver} used.
+	 */
+	static final String MANIFEST_ATTRIBUTE = "Dynatrace-Kafka-Agent-Weaver";
+
+	/**
+	 * Added to the main attributes of the manifest of woven jars, holding the {@link Instrumentation} used.
+	 */
+	static final String MANIFEST_INSTRUMENTATION = "Dynatrace-Kafka-Agent-Instrumentation";
+
+	/**
+	 * Added to the main attributes of the manifest of woven jars, holding the {@link Propagation} used.
+	 */
+	static final String MANIFEST_PROPAGATION = "Dynatrace-Kafka-Agent-Propagation";
+
+	/**
+	 * Added to the main attributes of the manifest of woven jars, holding whether {@link ConsumerBatching} was enabled.
+	 */
+	static final String MANIFEST_CONSUMER_BATCH = "Dynatrace-Kafka-Agent-Consumer-Batch";
+
+	/**
+	 * The locations of the jars verified already, see {@link #verify(ProtectionDomain, ClassTransformation)}.
+	 */
+	private static final ConcurrentMap<String, Boolean> VERIFIED = new ConcurrentHashMap<>();
+
+	private final ClassPool classPool = new ClassPool(null);
+
+	/**
+	 * @param in the jar to weave
+	 * @param classPath further jars the classes of {@code in} depend on, e.g. the Scala library for {@code kafka_2.x}
+	 */
+	private OfflineWeaver(File in, String[] classPath) throws NotFoundException {
+		classPool.appendClassPath(in.getAbsolutePath());
+		for (String entry : classPath) {
+			classPool.appendClassPath(entry);
+		}
+		classPool.appendClassPath(new ClassClassPath(KafkaJavaAgent.class));
+		classPool.appendSystemPath();
+	}
+
+	/**
+	 * Writes a woven copy of the given jar.
+	 *
+	 * @param in the jar to weave
+	 * @param out the jar to write, must differ from {@code in}
+	 * @param classPath further jars the classes of {@code in} depend on
+	 *
+	 * @return the number of classes woven
+	 *
+	 * @throws IOException if reading or writing fails
+	 * @throws NotFoundException if an entry of {@code classPath} does not exist
+	 */
+	static int weave(File in, File out, String[] classPath) throws IOException, NotFoundException {
+		if (in.getCanonicalFile().equals(out.getCanonicalFile())) {
+			throw new IOException("input and output jar must differ");
+		}
+		return new OfflineWeaver(in, classPath).weave(in, out);
+	}
+
+	private int weave(File in, File out) throws IOException {
+		int woven = 0;
+		try (
+			JarFile jar = new JarFile(in, false);
+			OutputStream file = new FileOutputStream(out);
+			JarOutputStream jarOut = new JarOutputStream(file);
+		) {
+			Manifest manifest = jar.getManifest();
+			if (manifest == null) {
+				manifest = new Manifest();
+				manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+			}
+			// the per entry digests belong to the signatures removed below
+			manifest.getEntries().clear();
+			Attributes attributes = manifest.getMainAttributes();
+			attributes.putValue(MANIFEST_ATTRIBUTE, KafkaJavaAgent.WEAVER.name());
+			attributes.putValue(MANIFEST_INSTRUMENTATION, Interceptors.instrumentation().name());
+			attributes.putValue(MANIFEST_PROPAGATION, propagation().name());
+			attributes.putValue(MANIFEST_CONSUMER_BATCH, String.valueOf(ConsumerBatching.isEnabled()));
+			jarOut.putNextEntry(new JarEntry(JarFile.MANIFEST_NAME));
+			manifest.write(jarOut);
+			jarOut.closeEntry();
+
+			Enumeration<JarEntry> entries = jar.entries();
+			while (entries.hasMoreElements()) {
+				JarEntry entry = entries.nextElement();
+				String name = entry.getName();
+				if (name.equalsIgnoreCase(JarFile.MANIFEST_NAME) || isSignature(name)) {
+					continue;
+				}
+				byte[] content;
+				try (
+					InputStream entryIn = jar.getInputStream(entry);
+				) {
+					content = readFully(entryIn);
+				}
+				if (!entry.isDirectory() && name.endsWith(".class")) {
+					byte[] transformed = transform(name.substring(0, name.length() - ".class".length()), content);
+					if (transformed != content) {
+						content = transformed;
+						woven++;
+					}
+				}
+				JarEntry outEntry = new JarEntry(name);
+				outEntry.setTime(entry.getTime());
+				jarOut.putNextEntry(outEntry);
+				jarOut.write(content);
+				jarOut.closeEntry();
+			}
+		}
+		return woven;
+	}
+
+	private static Propagation propagation() {
+		return TraceTagHeaders.isEnabled() ? Propagation.HEADER : Propagation.MQ;
+	}
+
+	/**
+	 * Called by the Agent for a class woven ahead of time, compares the configuration
+	 * recorded within the manifest of its jar with the one of the Agent, once per jar.
+	 *
+	 * @param protectionDomain the {@link ProtectionDomain} of the class, may be {@code null}
+	 * @param transformation the {@link ClassTransformation} registered for the class
+	 */
+	static void verify(ProtectionDomain protectionDomain, ClassTransformation transformation) {
+		CodeSource codeSource = (protectionDomain == null) ? null : protectionDomain.getCodeSource();
+		URL location = (codeSource == null) ? null : codeSource.getLocation();
+		if ((location == null) || !"file".equals(location.getProtocol())) {
+			if (!transformation.isEnabled()) {
+				Logging.warn("{} has been woven ahead of time, but is not woven with the configuration of the Agent", transformation);
+			}
+			return;
+		}
+		if (VERIFIED.putIfAbsent(location.toString(), Boolean.TRUE) != null) {
+			return;
+		}
+		Attributes attributes;
+		try (
+			JarFile jar = new JarFile(new File(location.toURI()), false);
+		) {
+			Manifest manifest = jar.getManifest();
+			attributes = (manifest == null) ? new Attributes() : manifest.getMainAttributes();
+		} catch (Exception e) {
+			Logging.fine("reading the manifest of {} failed: {}", location, e);
+			return;
+		}
+		StringBuilder differences = new StringBuilder();
+		compare(differences, attributes, MANIFEST_INSTRUMENTATION, Interceptors.instrumentation().name());
+		compare(differences, attributes, MANIFEST_PROPAGATION, propagation().name());
+		compare(differences, attributes, MANIFEST_CONSUMER_BATCH, String.valueOf(ConsumerBatching.isEnabled()));
+		if (differences.length() > 0) {
+			Logging.warn("{} has been woven ahead of time with a different configuration ({}) - calls of woven classes conflicting with the Agent get skipped, weave it again with the configuration of the Agent",
+					location, differences);
+		}
+	}
+
+	private static void compare(StringBuilder differences, Attributes attributes, String name, String expected) {
+		String actual = attributes.getValue(name);
+		if (expected.equals(actual)) {
+			return;
+		}
+		if (differences.length() > 0) {
+			differences.append(", ");
+		}
+		differences.append(name).append(": ").append((actual == null) ? "unknown" : actual).append(" instead of ").append(expected);
+	}
+
+	private byte[] transform(String className, byte[] buffer) {
+		ClassTransformation transformation = KafkaJavaAgent.transformation(className);
+		if ((transformation == null) || !transformation.isEnabled()) {
+			return buffer;
+		}
+		if (ClassFileRewriter.isWoven(buffer)) {
+			Logging.warn("{} has been woven before - left untouched", transformation);
+			return buffer;
+		}
+		try {
+			byte[] transformed = transformation.transform(classPool, buffer);
+			if (transformed == null) {
+				return buffer;
+			}
+			return transformed;
+		} catch (Exception e) {
+			Logging.error("weaving of " + transformation + " failed", e);
+			return buffer;
+		}
+	}
+
+	private static boolean isSignature(String name) {
+		String upperCase = name.toUpperCase();
+		if (!upperCase.startsWith("META-INF/") || (upperCase.indexOf('/', "META-INF/".length()) >= 0)) {
+			return false;
+		}
+		return upperCase.endsWith(".SF") || upperCase.endsWith(".RSA") || upperCase.endsWith(".DSA") || upperCase.endsWith(".EC") || upperCase.startsWith("META-INF/SIG-");
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] chunk = new byte[8192];
+		int read;
+		while ((read = in.read(chunk)) >= 0) {
+			out.write(chunk, 0, read);
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,28 @@
+package com.dynatrace.kafka;
+
+/**
+ * Defines what happens with work handed over to a full {@link RingBuffer}.
+ */
+public enum OverflowPolicy {
+
+	/**
+	 * The work gets dropped and counted.
+	 */
+	DROP,
+
+	/**
+	 * Once the buffer is half full only a sample of the work gets accepted,
+	 * the rest gets dropped and counted.
+	 */
+	SAMPLE,
+
+	/**
+	 * A slot gets reserved before the work is created, waiting up to a configured
+	 * timeout for a free one, otherwise the work gets dropped and counted. The thread
+	 * finally handing over the work never waits. If the work gets spread over several
+	 * buffers, the slots are shared by all of them, so a buffer receiving more than its
+	 * share may still drop work.
+	 */
+	BLOCK;
+
+}
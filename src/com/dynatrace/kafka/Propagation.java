@@ -0,0 +1,21 @@
+package com.dynatrace.kafka;
+
+/**
+ * The ways trace tags are passed from producers to consumers.
+ */
+public enum Propagation {
+
+	/**
+	 * Producer and consumer perform a fake MQ put and get, keyed by topic,
+	 * partition and offset. The producer side can only link once Kafka
+	 * acknowledged the record.
+	 */
+	MQ,
+
+	/**
+	 * The trace tag is written into a record header while sending and read
+	 * back while consuming. Requires Kafka clients 0.11 or later.
+	 */
+	HEADER;
+
+}
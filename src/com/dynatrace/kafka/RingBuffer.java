@@ -0,0 +1,189 @@
+package com.dynatrace.kafka;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, lock free queue for many producing threads and a single consuming thread.<br />
+ * <br />
+ * All slots are allocated up front, so handing over an element neither allocates
+ * nor takes a lock. Every slot carries a sequence number telling producers whether
+ * the slot is free and the consumer whether it has been published.<br />
+ * <br />
+ * Only one thread may call {@link #poll()} and {@link #take()}.
+ *
+ * @param <E> the type of elements held in this buffer
+ */
+public final class RingBuffer<E> {
+
+	/**
+	 * How often {@link #take()} retries before parking the consuming thread.
+	 */
+	private static final int SPINS = 64;
+
+	/**
+	 * How long a producer waiting for a free slot parks between two attempts.
+	 */
+	private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+	/**
+	 * The largest capacity supported, the largest power of two an {@code int} can hold.
+	 */
+	public static final int MAX_CAPACITY = 1 << 30;
+
+	private final int mask;
+	private final AtomicReferenceArray<E> elements;
+	private final AtomicLongArray sequences;
+	private final AtomicLong tail = new AtomicLong();
+	private volatile long head;
+	private volatile Thread waiter;
+
+	/**
+	 * @param capacity the requested capacity, rounded up to the next power of two
+	 * 		and limited to {@link #MAX_CAPACITY}
+	 *
+	 * @throws IllegalArgumentException if {@code capacity} is less than {@code 1}
+	 */
+	public RingBuffer(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity " + capacity + " is less than 1");
+		}
+		capacity = Math.min(capacity, MAX_CAPACITY);
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		this.mask = size - 1;
+		this.elements = new AtomicReferenceArray<>(size);
+		this.sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * @return the number of slots of this buffer
+	 */
+	public int capacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * @return the number of elements currently held, exact only if no other thread is operating on this buffer
+	 */
+	public int size() {
+		long size = tail.get() - head;
+		if (size < 0) {
+			return 0;
+		}
+		return (int) Math.min(size, capacity());
+	}
+
+	/**
+	 * Adds the given element unless the buffer is full.
+	 *
+	 * @param element the element to add, must not be {@code null}
+	 *
+	 * @return {@code true} if the element has been added, {@code false} if the buffer was full
+	 */
+	public boolean offer(E element) {
+		while (true) {
+			long position = tail.get();
+			int index = (int) position & mask;
+			long difference = sequences.get(index) - position;
+			if (difference == 0) {
+				if (tail.compareAndSet(position, position + 1)) {
+					elements.lazySet(index, element);
+					// a full volatile write, ordering the publication before reading the waiter
+					sequences.set(index, position + 1);
+					Thread thread = waiter;
+					if (thread != null) {
+						LockSupport.unpark(thread);
+					}
+					return true;
+				}
+			} else if (difference < 0) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Adds the given element, waiting up to the given timeout for a slot to become free.
+	 *
+	 * @param element the element to add, must not be {@code null}
+	 * @param timeout how long to wait
+	 * @param unit the {@link TimeUnit} of {@code timeout}
+	 *
+	 * @return {@code true} if the element has been added, {@code false} if the timeout elapsed
+	 */
+	public boolean offer(E element, long timeout, TimeUnit unit) {
+		if (offer(element)) {
+			return true;
+		}
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		do {
+			LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+			if (offer(element)) {
+				return true;
+			}
+		} while (System.nanoTime() - deadline < 0);
+		return false;
+	}
+
+	/**
+	 * Removes the oldest element. Must only be called by the consuming thread.
+	 *
+	 * @return the oldest element or {@code null} if the buffer is empty
+	 */
+	public E poll() {
+		long position = head;
+		int index = (int) position & mask;
+		if (sequences.get(index) != position + 1) {
+			return null;
+		}
+		E element = elements.get(index);
+		elements.lazySet(index, null);
+		sequences.lazySet(index, position + mask + 1);
+		head = position + 1;
+		return element;
+	}
+
+	/**
+	 * Removes the oldest element, waiting for one to become available.
+	 * Must only be called by the consuming thread.
+	 *
+	 * @return the oldest element
+	 *
+	 * @throws InterruptedException if the consuming thread has been interrupted while waiting
+	 */
+	public E take() throws InterruptedException {
+		int spins = SPINS;
+		while (true) {
+			E element = poll();
+			if (element != null) {
+				return element;
+			}
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			if (spins > 0) {
+				spins--;
+				continue;
+			}
+			waiter = Thread.currentThread();
+			try {
+				element = poll();
+				if (element != null) {
+					return element;
+				}
+				LockSupport.park(this);
+			} finally {
+				waiter = null;
+			}
+		}
+	}
+}
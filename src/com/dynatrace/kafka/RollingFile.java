@@ -0,0 +1,96 @@
+package com.dynatrace.kafka;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * A log file which is rolled over once it exceeds a maximum size. Rolled over files
+ * get the suffixes {@code .1} (the most recent one) up to {@code .<count - 1>},
+ * older ones are deleted.<br />
+ * <br />
+ * Not thread safe, only used by the {@link LogAppender} thread.
+ */
+final class RollingFile {
+
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator", "\n");
+
+	private final File file;
+	private final long maxBytes;
+	private final int count;
+	private Writer writer;
+	private long bytes;
+
+	/**
+	 * @param file the file to write to
+	 * @param maxBytes the size in bytes after which the file gets rolled over
+	 * @param count the number of files kept, including the one written to
+	 */
+	RollingFile(File file, long maxBytes, int count) {
+		this.file = file;
+		this.maxBytes = Math.max(1024, maxBytes);
+		this.count = Math.max(1, count);
+	}
+
+	/**
+	 * Writes the given line, rolling the file over before if it would exceed its maximum size.
+	 *
+	 * @param line the line to write, without line separator
+	 *
+	 * @throws IOException if the file cannot be written
+	 */
+	void writeLine(String line) throws IOException {
+		// an estimation, exact for ASCII
+		long length = line.length() + LINE_SEPARATOR.length();
+		if ((writer != null) && (bytes > 0) && (bytes + length > maxBytes)) {
+			roll();
+		}
+		if (writer == null) {
+			open();
+		}
+		writer.write(line);
+		writer.write(LINE_SEPARATOR);
+		bytes += length;
+	}
+
+	void flush() throws IOException {
+		if (writer != null) {
+			writer.flush();
+		}
+	}
+
+	void close() throws IOException {
+		if (writer != null) {
+			writer.close();
+			writer = null;
+		}
+	}
+
+	private void open() throws IOException {
+		File directory = file.getAbsoluteFile().getParentFile();
+		if ((directory != null) && !directory.isDirectory()) {
+			directory.mkdirs();
+		}
+		writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), CHARSET));
+		bytes = file.length();
+	}
+
+	private void roll() throws IOException {
+		close();
+		new File(file.getPath() + "." + (count - 1)).delete();
+		for (int i = count - 2; i >= 1; i--) {
+			new File(file.getPath() + "." + i).renameTo(new File(file.getPath() + "." + (i + 1)));
+		}
+		if (count > 1) {
+			file.renameTo(new File(file.getPath() + ".1"));
+		} else {
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,272 @@
+package com.dynatrace.kafka;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides up front which records get traced, before any tagging work is done.<br />
+ * <br />
+ * With {@link Propagation#HEADER} the decision is taken on the producer side. Records
+ * which have not been sampled carry no trace tag, so consumers follow the decision
+ * of the producer exactly.<br />
+ * <br />
+ * With {@link Propagation#MQ} consumers cannot tell which records have been sampled.
+ * Records therefore get decided by a hash of their topic, partition and offset, via
+ * {@link #sample(String, int, long)} right before the MQ put of the producer and the
+ * MQ get of the consumer, so both sides agree on every record. The offset is only known
+ * once the record got acknowledged, so before sending only topics which are never
+ * sampled get skipped. The client side of the link is created on the sending thread
+ * for every other record, records sampled out afterwards leave it unmatched, see
+ * {@link AgentMetrics#TAGS_UNMATCHED}. {@link Mode#ADAPTIVE} depends on the time a record got sent and
+ * is not supported with {@link Propagation#MQ}, every record gets traced instead.<br />
+ * <br />
+ * Every decision is lock free, the only shared state written is the schedule
+ * of {@link Mode#ADAPTIVE}, and only when a record actually gets sampled.
+ */
+public final class Sampler {
+
+	/**
+	 * The available sampling modes.
+	 */
+	public static enum Mode {
+
+		/**
+		 * Every record gets traced.
+		 */
+		ALL,
+
+		/**
+		 * Records get traced with the probability configured via {@link Sampler#PROPERTY_SAMPLING_RATE}.
+		 */
+		FIXED,
+
+		/**
+		 * Like {@link #FIXED}, but with probabilities per topic configured via {@link Sampler#PROPERTY_SAMPLING_TOPICS}.
+		 */
+		TOPIC,
+
+		/**
+		 * At most the number of records per second configured via {@link Sampler#PROPERTY_SAMPLING_TARGET}
+		 * get traced, evenly spread over time.
+		 */
+		ADAPTIVE;
+
+	}
+
+	/**
+	 * System Property selecting the sampling {@link Mode}. Defaults to {@link Mode#ALL}.
+	 */
+	private static final String PROPERTY_SAMPLING = "com.dynatrace.kafka.agent.sampling";
+
+	/**
+	 * System Property for the probability ({@code 0.0} to {@code 1.0}) of {@link Mode#FIXED}
+	 * and of topics not listed for {@link Mode#TOPIC}. Defaults to {@code 1.0}.
+	 */
+	private static final String PROPERTY_SAMPLING_RATE = "com.dynatrace.kafka.agent.sampling.rate";
+
+	/**
+	 * System Property for the probabilities of {@link Mode#TOPIC}, given as comma separated
+	 * list of {@code <topic>:<probability>} pairs, e.g. {@code orders:1.0,metrics:0.01}.
+	 */
+	private static final String PROPERTY_SAMPLING_TOPICS = "com.dynatrace.kafka.agent.sampling.topics";
+
+	/**
+	 * System Property for the number of records per second {@link Mode#ADAPTIVE} traces. Defaults to {@code 100}.
+	 */
+	private static final String PROPERTY_SAMPLING_TARGET = "com.dynatrace.kafka.agent.sampling.target";
+
+	/**
+	 * Probabilities are mapped to thresholds for a random number between {@code 0} (inclusive) and this value (exclusive).
+	 */
+	private static final int RESOLUTION = 1 << 24;
+
+	/**
+	 * How far {@link Mode#ADAPTIVE} may catch up after a quiet period.
+	 */
+	private static final long ADAPTIVE_BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	/**
+	 * {@code true} if records get decided by {@link #sample(String, int, long)}, see {@link Propagation#MQ}.
+	 */
+	private static final boolean BY_RECORD = !TraceTagHeaders.isEnabled();
+
+	private static final Mode MODE = resolveMode();
+
+	private static final int THRESHOLD = toThreshold(AgentProperties.getDouble(PROPERTY_SAMPLING_RATE, 1.0));
+
+	private static final Map<String, Integer> TOPIC_THRESHOLDS = resolveTopicThresholds();
+
+	private static final long ADAPTIVE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1) / Math.max(1, AgentProperties.getInt(PROPERTY_SAMPLING_TARGET, 100));
+
+	/**
+	 * The earliest point in time ({@link System#nanoTime()}) {@link Mode#ADAPTIVE} samples the next record.
+	 */
+	private static final AtomicLong NEXT_ADAPTIVE_SAMPLE = new AtomicLong(System.nanoTime());
+
+	private Sampler() {
+		// prevent instantiation
+	}
+
+	private static Mode resolveMode() {
+		Mode mode = AgentProperties.getEnum(PROPERTY_SAMPLING, Mode.class, Mode.ALL);
+		if ((mode == Mode.ADAPTIVE) && BY_RECORD) {
+			Logging.warn("{} sampling is not supported with {} propagation - tracing all records", Mode.ADAPTIVE, Propagation.MQ);
+			return Mode.ALL;
+		}
+		return mode;
+	}
+
+	/**
+	 * Decides whether a record about to be sent to the given topic gets traced. With
+	 * {@link Propagation#MQ} only decides whether it may get traced, the final decision
+	 * is taken by {@link #sample(String, int, long)} once it got acknowledged.
+	 *
+	 * @param topic the topic of the record
+	 *
+	 * @return {@code true} if the record gets traced
+	 */
+	public static boolean sample(String topic) {
+		if (BY_RECORD) {
+			return mayBeSampled(topic);
+		}
+		switch (MODE) {
+		case ALL:
+			return true;
+		case FIXED:
+			return sample(THRESHOLD);
+		case TOPIC:
+			return sample(threshold(topic));
+		case ADAPTIVE:
+			return sampleAdaptive();
+		default:
+			return true;
+		}
+	}
+
+	/**
+	 * Decides whether the record at the given position gets traced with {@link Propagation#MQ},
+	 * equally within every JVM, called right before the MQ put and the MQ get of the record.
+	 *
+	 * @param topic the topic of the record
+	 * @param partition the partition of the record
+	 * @param offset the offset of the record
+	 *
+	 * @return {@code true} if the record gets traced
+	 */
+	public static boolean sample(String topic, int partition, long offset) {
+		if (!BY_RECORD) {
+			// decided by sample(String) already
+			return true;
+		}
+		switch (MODE) {
+		case FIXED:
+			return sample(THRESHOLD, topic, partition, offset);
+		case TOPIC:
+			return sample(threshold(topic), topic, partition, offset);
+		default:
+			return true;
+		}
+	}
+
+	/**
+	 * Decides whether a record of the given topic may get traced at all.
+	 *
+	 * @param topic the topic of the record
+	 *
+	 * @return {@code false} if no record of the given topic gets traced
+	 */
+	public static boolean mayBeSampled(String topic) {
+		switch (MODE) {
+		case FIXED:
+			return THRESHOLD > 0;
+		case TOPIC:
+			return threshold(topic) > 0;
+		default:
+			return true;
+		}
+	}
+
+	private static boolean sample(int threshold) {
+		if (threshold >= RESOLUTION) {
+			return true;
+		}
+		if (threshold <= 0) {
+			return false;
+		}
+		return ThreadLocalRandom.current().nextInt(RESOLUTION) < threshold;
+	}
+
+	private static boolean sample(int threshold, String topic, int partition, long offset) {
+		if (threshold >= RESOLUTION) {
+			return true;
+		}
+		if (threshold <= 0) {
+			return false;
+		}
+		// String.hashCode() is specified, so the hash is equal within every JVM
+		long hash = ((topic == null) ? 0 : topic.hashCode()) * 31L + partition;
+		hash = hash * 0x9E3779B97F4A7C15L + offset;
+		// the finalizer of SplitMix64, spreading consecutive offsets over the whole range
+		hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+		hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+		hash ^= (hash >>> 31);
+		return ((int) hash & (RESOLUTION - 1)) < threshold;
+	}
+
+	private static boolean sampleAdaptive() {
+		long now = System.nanoTime();
+		long next = NEXT_ADAPTIVE_SAMPLE.get();
+		if (now - next < 0) {
+			return false;
+		}
+		long scheduled = Math.max(next, now - ADAPTIVE_BURST_NANOS) + ADAPTIVE_INTERVAL_NANOS;
+		return NEXT_ADAPTIVE_SAMPLE.compareAndSet(next, scheduled);
+	}
+
+	private static int threshold(String topic) {
+		if (topic == null) {
+			return THRESHOLD;
+		}
+		Integer threshold = TOPIC_THRESHOLDS.get(topic);
+		if (threshold == null) {
+			return THRESHOLD;
+		}
+		return threshold.intValue();
+	}
+
+	private static int toThreshold(double probability) {
+		if (probability >= 1.0) {
+			return RESOLUTION;
+		}
+		if (probability <= 0.0) {
+			return 0;
+		}
+		return (int) (probability * RESOLUTION);
+	}
+
+	private static Map<String, Integer> resolveTopicThresholds() {
+		Map<String, Integer> thresholds = new HashMap<>();
+		String topics = AgentProperties.getString(PROPERTY_SAMPLING_TOPICS, null);
+		if (topics == null) {
+			return thresholds;
+		}
+		for (String entry : topics.split(",")) {
+			int separator = entry.lastIndexOf(':');
+			if (separator <= 0) {
+				Logging.warn("Invalid entry '{}' for System Property '{}' - expected <topic>:<probability>", entry, PROPERTY_SAMPLING_TOPICS);
+				continue;
+			}
+			String topic = entry.substring(0, separator).trim();
+			try {
+				double probability = Double.parseDouble(entry.substring(separator + 1).trim());
+				thresholds.put(topic, toThreshold(probability));
+			} catch (NumberFormatException e) {
+				Logging.warn("Invalid entry '{}' for System Property '{}' - expected <topic>:<probability>", entry, PROPERTY_SAMPLING_TOPICS);
+			}
+		}
+		return thresholds;
+	}
+}
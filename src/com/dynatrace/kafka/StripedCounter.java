@@ -0,0 +1,65 @@
+package com.dynatrace.kafka;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter spreading concurrent updates over several cells, in the spirit of
+ * {@code java.util.concurrent.atomic.LongAdder}, which is not available on Java 7.<br />
+ * <br />
+ * Threads are mapped to cells by their id. Cells are padded to separate cache
+ * lines, so threads updating different cells do not contend.
+ */
+public final class StripedCounter {
+
+	/**
+	 * The distance between two cells in {@code long}s, covering a cache line of 64 bytes.
+	 */
+	private static final int PADDING = 8;
+
+	private static final int STRIPES = resolveStripes();
+
+	private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+	private static int resolveStripes() {
+		int processors = Runtime.getRuntime().availableProcessors();
+		int stripes = 1;
+		while (stripes < processors) {
+			stripes <<= 1;
+		}
+		return stripes;
+	}
+
+	/**
+	 * Increments this counter by one.
+	 */
+	public void increment() {
+		add(1);
+	}
+
+	/**
+	 * Adds the given value to this counter.
+	 *
+	 * @param value the value to add
+	 */
+	public void add(long value) {
+		cells.getAndAdd(cell(), value);
+	}
+
+	/**
+	 * @return the sum of all cells, not an atomic snapshot in case of concurrent updates
+	 */
+	public long sum() {
+		long sum = 0;
+		for (int i = 0; i < STRIPES; i++) {
+			sum += cells.get(i * PADDING);
+		}
+		return sum;
+	}
+
+	private static int cell() {
+		long id = Thread.currentThread().getId();
+		int hash = (int) (id ^ (id >>> 32));
+		hash ^= (hash >>> 16);
+		return (hash & (STRIPES - 1)) * PADDING;
+	}
+}
@@ -0,0 +1,36 @@
+package com.dynatrace.kafka;
+
+import com.dynatrace.adk.DynaTraceADKFactory;
+import com.dynatrace.adk.Tagging;
+
+/**
+ * Keeps one {@link Tagging} per thread, so sending and consuming records does not
+ * call {@link DynaTraceADKFactory#createTagging()} for every record.<br />
+ * <br />
+ * A {@link Tagging} is only used by the thread it was created for. If the factory
+ * does not hand out one, e.g. while no Dynatrace Agent is attached, the next call
+ * asks the factory again.
+ */
+public final class TaggingCache {
+
+	private static final ThreadLocal<Tagging> TAGGINGS = new ThreadLocal<>();
+
+	private TaggingCache() {
+		// prevent instantiation
+	}
+
+	/**
+	 * @return the {@link Tagging} of the current thread or {@code null} if the Dynatrace ADK does not provide one
+	 */
+	public static Tagging current() {
+		Tagging tagging = TAGGINGS.get();
+		if (tagging != null) {
+			return tagging;
+		}
+		tagging = DynaTraceADKFactory.createTagging();
+		if (tagging != null) {
+			TAGGINGS.set(tagging);
+		}
+		return tagging;
+	}
+}
@@ -0,0 +1,211 @@
+package com.dynatrace.kafka;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Decides which topics get traced at all, checked first by every entry point, so
+ * records of excluded topics cause no work within the Dynatrace ADK, the MQ Sensors
+ * or the tagging engine.<br />
+ * <br />
+ * Topics are listed via {@link #PROPERTY_TOPICS_INCLUDE} and {@link #PROPERTY_TOPICS_EXCLUDE}
+ * as comma separated patterns, each one either
+ * <ul>
+ * <li>an exact topic name, e.g. {@code orders}</li>
+ * <li>a prefix followed by {@code *}, e.g. {@code metrics.*}</li>
+ * <li>a glob, where {@code *} matches any number and {@code ?} exactly one character, e.g. {@code *.dlq}</li>
+ * </ul>
+ * The patterns are compiled once. The decision for a topic gets cached by the identity
+ * of its name, as Kafka clients keep passing the same {@link String} instance for a
+ * topic, so a record of a topic seen before costs a single array lookup.
+ */
+public final class TopicFilter {
+
+	/**
+	 * System Property for the patterns of the topics getting traced. Defaults to all topics.
+	 */
+	private static final String PROPERTY_TOPICS_INCLUDE = "com.dynatrace.kafka.agent.topics.include";
+
+	/**
+	 * System Property for the patterns of the topics never getting traced, even if included.
+	 * Defaults to {@code __*}, the internal topics of Kafka such as {@code __consumer_offsets}.
+	 * An empty value excludes no topic.
+	 */
+	private static final String PROPERTY_TOPICS_EXCLUDE = "com.dynatrace.kafka.agent.topics.exclude";
+
+	private static final String DEFAULT_EXCLUDE = "__*";
+
+	/**
+	 * The number of topic name instances the decision is cached for by identity, a power of two.
+	 */
+	private static final int SLOTS = 1024;
+
+	/**
+	 * The maximum number of topic names the decision is cached for by equality, further topics get matched on every identity miss.
+	 */
+	private static final int MAX_TOPICS = 4096;
+
+	/**
+	 * The compiled patterns of one of the System Properties.
+	 */
+	private static final class Patterns {
+
+		private final Set<String> names = new HashSet<>();
+		private final List<String> prefixes = new ArrayList<>();
+		private final List<String> globs = new ArrayList<>();
+
+		Patterns(String property, String value) {
+			if (value == null) {
+				return;
+			}
+			for (String pattern : value.split(",")) {
+				pattern = pattern.trim();
+				if (pattern.isEmpty()) {
+					continue;
+				}
+				int wildcard = indexOfWildcard(pattern);
+				if (wildcard < 0) {
+					names.add(pattern);
+				} else if ((wildcard == pattern.length() - 1) && (pattern.charAt(wildcard) == '*')) {
+					prefixes.add(pattern.substring(0, wildcard));
+				} else {
+					globs.add(pattern);
+				}
+			}
+			if (Logging.isFineEnabled()) {
+				Logging.fine("System Property '" + property + "': " + names.size() + " names, " + prefixes.size() + " prefixes, " + globs.size() + " globs");
+			}
+		}
+
+		boolean isEmpty() {
+			return names.isEmpty() && prefixes.isEmpty() && globs.isEmpty();
+		}
+
+		boolean matches(String topic) {
+			if (names.contains(topic)) {
+				return true;
+			}
+			for (String prefix : prefixes) {
+				if (topic.startsWith(prefix)) {
+					return true;
+				}
+			}
+			for (String glob : globs) {
+				if (glob(glob, topic)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * A decision cached by the identity of the topic name.
+	 */
+	private static final class Entry {
+
+		final String topic;
+		final boolean traced;
+
+		Entry(String topic, boolean traced) {
+			this.topic = topic;
+			this.traced = traced;
+		}
+	}
+
+	private static final Patterns INCLUDE = new Patterns(PROPERTY_TOPICS_INCLUDE, AgentProperties.getString(PROPERTY_TOPICS_INCLUDE, null));
+
+	private static final Patterns EXCLUDE = new Patterns(PROPERTY_TOPICS_EXCLUDE, resolveExclude());
+
+	private static final boolean FILTERING = !INCLUDE.isEmpty() || !EXCLUDE.isEmpty();
+
+	/**
+	 * Written racily, an {@link Entry} is immutable and a lost write only costs another lookup of {@link #DECISIONS}.
+	 */
+	private static final Entry[] ENTRIES = new Entry[SLOTS];
+
+	private static final ConcurrentMap<String, Boolean> DECISIONS = new ConcurrentHashMap<>();
+
+	private TopicFilter() {
+		// prevent instantiation
+	}
+
+	private static String resolveExclude() {
+		// not via AgentProperties, which treats an empty value like a missing one
+		String value = System.getProperty(PROPERTY_TOPICS_EXCLUDE);
+		return (value == null) ? DEFAULT_EXCLUDE : value;
+	}
+
+	/**
+	 * @param topic the topic of a record, may be {@code null}
+	 *
+	 * @return {@code false} if records of the given topic must not be traced
+	 */
+	public static boolean isTraced(String topic) {
+		if (!FILTERING || (topic == null)) {
+			return true;
+		}
+		int slot = System.identityHashCode(topic) & (SLOTS - 1);
+		Entry entry = ENTRIES[slot];
+		if ((entry != null) && (entry.topic == topic)) {
+			return entry.traced;
+		}
+		boolean traced = decide(topic);
+		ENTRIES[slot] = new Entry(topic, traced);
+		return traced;
+	}
+
+	private static boolean decide(String topic) {
+		Boolean decision = DECISIONS.get(topic);
+		if (decision != null) {
+			return decision.booleanValue();
+		}
+		boolean traced = (INCLUDE.isEmpty() || INCLUDE.matches(topic)) && !EXCLUDE.matches(topic);
+		if (DECISIONS.size() < MAX_TOPICS) {
+			DECISIONS.putIfAbsent(topic, Boolean.valueOf(traced));
+		}
+		return traced;
+	}
+
+	private static int indexOfWildcard(String pattern) {
+		for (int i = 0; i < pattern.length(); i++) {
+			char c = pattern.charAt(i);
+			if ((c == '*') || (c == '?')) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Matches the given topic against a glob, backtracking to the last {@code *} on a mismatch.
+	 */
+	static boolean glob(String glob, String topic) {
+		int g = 0;
+		int t = 0;
+		int star = -1;
+		int starMatch = 0;
+		while (t < topic.length()) {
+			if ((g < glob.length()) && ((glob.charAt(g) == '?') || (glob.charAt(g) == topic.charAt(t)))) {
+				g++;
+				t++;
+			} else if ((g < glob.length()) && (glob.charAt(g) == '*')) {
+				star = g++;
+				starMatch = t;
+			} else if (star >= 0) {
+				g = star + 1;
+				t = ++starMatch;
+			} else {
+				return false;
+			}
+		}
+		while ((g < glob.length()) && (glob.charAt(g) == '*')) {
+			g++;
+		}
+		return g == glob.length();
+	}
+}
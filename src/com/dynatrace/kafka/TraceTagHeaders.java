@@ -0,0 +1,97 @@
+package com.dynatrace.kafka;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+
+/**
+ * Passes trace tags via record headers, see {@link Propagation#HEADER}.<br />
+ * <br />
+ * Kafka clients older than 0.11 do not know about record headers. The first
+ * {@link LinkageError} therefore permanently falls back to {@link Propagation#MQ}.
+ */
+public final class TraceTagHeaders {
+
+	/**
+	 * System Property selecting the {@link Propagation}. Defaults to {@link Propagation#MQ}.
+	 */
+	private static final String PROPERTY_PROPAGATION = "com.dynatrace.kafka.agent.propagation";
+
+	/**
+	 * The key of the record header holding the trace tag.
+	 */
+	public static final String KEY = "dtdTraceTagInfo";
+
+	private static volatile boolean enabled =
+			AgentProperties.getEnum(PROPERTY_PROPAGATION, Propagation.class, Propagation.MQ) == Propagation.HEADER;
+
+	private TraceTagHeaders() {
+		// prevent instantiation
+	}
+
+	/**
+	 * @return {@code true} if trace tags are passed via record headers
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Writes the given trace tag into the headers of the given record,
+	 * replacing a trace tag possibly written by a previous attempt to send it.
+	 *
+	 * @param record the record about to be sent
+	 * @param traceTag the trace tag to pass on
+	 *
+	 * @return {@code true} if the record has been dealt with, {@code false}
+	 * 		if the trace tag needs to get passed via {@link Propagation#MQ}
+	 */
+	public static boolean write(ProducerRecord record, byte[] traceTag) {
+		if (!enabled) {
+			return false;
+		}
+		try {
+			Headers headers = record.headers();
+			headers.remove(KEY);
+			headers.add(KEY, traceTag);
+			return true;
+		} catch (IllegalStateException e) {
+			// headers become read only once the record has been sent, it keeps the trace tag of that attempt
+			return true;
+		} catch (LinkageError e) {
+			unsupported(e);
+			return false;
+		}
+	}
+
+	/**
+	 * Reads the trace tag from the headers of the given record.
+	 *
+	 * @param record the consumed record
+	 *
+	 * @return the trace tag or {@code null} if the record does not carry one
+	 */
+	public static byte[] read(ConsumerRecord<?, ?> record) {
+		if (!enabled) {
+			return null;
+		}
+		try {
+			Header header = record.headers().lastHeader(KEY);
+			if (header == null) {
+				return null;
+			}
+			return header.value();
+		} catch (LinkageError e) {
+			unsupported(e);
+			return null;
+		}
+	}
+
+	private static void unsupported(LinkageError e) {
+		if (enabled) {
+			enabled = false;
+			Logging.warn("Kafka client does not support record headers ({}) - falling back to {}", e, Propagation.MQ);
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package com.dynatrace.kafka;
+
+import java.util.Map;
+
+import org.apache.kafka.clients.consumer.ConsumerInterceptor;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+import kafka.consumer.PurePathStarter;
+
+/**
+ * Links the records polled to the trace tags they carry, added to {@code interceptor.classes}
+ * with {@link Instrumentation#INTERCEPTOR}.<br />
+ * <br />
+ * Instantiated by Kafka for every {@code KafkaConsumer}, so it keeps no state of its own.
+ * No PurePath is kept open after {@link #onConsume(ConsumerRecords)}, see
+ * {@link PurePathStarter#intercept(ConsumerRecords)}.
+ */
+public class TracingConsumerInterceptor<K, V> implements ConsumerInterceptor<K, V> {
+
+	@Override
+	public void configure(Map<String, ?> configs) {
+		// nothing to configure, the Agent is configured via System Properties
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public ConsumerRecords<K, V> onConsume(ConsumerRecords<K, V> records) {
+		return (ConsumerRecords<K, V>) PurePathStarter.intercept(records);
+	}
+
+	@Override
+	public void onCommit(Map<TopicPartition, OffsetAndMetadata> offsets) {
+		// committing offsets does not affect PurePaths
+	}
+
+	@Override
+	public void close() {
+		// nothing to release
+	}
+}
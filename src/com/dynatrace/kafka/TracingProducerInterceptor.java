@@ -0,0 +1,40 @@
+package com.dynatrace.kafka;
+
+import java.util.Map;
+
+import org.apache.kafka.clients.producer.KafkaProducerTaggingEngine;
+import org.apache.kafka.clients.producer.ProducerInterceptor;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+
+/**
+ * Passes the trace tag of the sending thread on to the consumers of every record sent,
+ * added to {@code interceptor.classes} with {@link Instrumentation#INTERCEPTOR}.<br />
+ * <br />
+ * Instantiated by Kafka for every {@code KafkaProducer}, so it keeps no state of its own.
+ */
+public class TracingProducerInterceptor<K, V> implements ProducerInterceptor<K, V> {
+
+	@Override
+	public void configure(Map<String, ?> configs) {
+		// nothing to configure, the Agent is configured via System Properties
+	}
+
+	@Override
+	public ProducerRecord onSend(ProducerRecord record) {
+		return KafkaProducerTaggingEngine.intercept(record);
+	}
+
+	/**
+	 * Nothing left to do, the trace tag travels within the record.
+	 */
+	@Override
+	public void onAcknowledgement(RecordMetadata metadata, Exception exception) {
+		// nothing to link
+	}
+
+	@Override
+	public void close() {
+		// nothing to release
+	}
+}
@@ -0,0 +1,212 @@
+package com.dynatrace.kafka;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javassist.CtClass;
+
+/**
+ * Remembers the woven byte code of transformed classes by class name and
+ * SHA-1 hash of the original byte code, so a class loaded by several
+ * {@link ClassLoader}s gets woven only once.<br />
+ * <br />
+ * With {@link #PROPERTY_CACHE_DIR} woven byte code is also written to disk,
+ * so restarts of the same application skip weaving entirely. Files are kept
+ * within a sub directory named after a fingerprint of the weaving code of
+ * this Agent and the selected {@link Weaver}, so a different Agent version
+ * never picks up byte code woven by another one.<br />
+ * <br />
+ * Only successfully modified byte code is cached. A class which could not be
+ * transformed gets another attempt the next time it is loaded.
+ */
+final class TransformationCache {
+
+	/**
+	 * System Property for a directory holding woven byte code across restarts.
+	 * Not set by default, which keeps woven byte code in memory only.
+	 */
+	private static final String PROPERTY_CACHE_DIR = "com.dynatrace.kafka.agent.cache.dir";
+
+	/**
+	 * The maximum number of classes held in memory. Every Kafka version loaded
+	 * takes one entry per transformed class, so this is never reached in practice.
+	 */
+	private static final int MAX_ENTRIES = 256;
+
+	/**
+	 * The classes of this Agent producing woven byte code.
+	 */
+	private static final String[] WEAVING_CLASSES = {
+		"com/dynatrace/kafka/EquinoxClassLoaderHelper.class",
+		"com/dynatrace/kafka/TransformationHelper.class",
+		"com/dynatrace/kafka/BytecodeWeaver.class",
+		"com/dynatrace/kafka/ClassFileRewriter.class",
+		"com/dynatrace/kafka/ClassFileRewriter$Code.class"
+	};
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private static final ConcurrentMap<String, byte[]> RESULTS = new ConcurrentHashMap<>();
+
+	private static final File DIRECTORY = resolveDirectory();
+
+	private TransformationCache() {
+		// prevent instantiation
+	}
+
+	private static File resolveDirectory() {
+		String path = AgentProperties.getString(PROPERTY_CACHE_DIR, null);
+		if ((path == null) || path.isEmpty()) {
+			return null;
+		}
+		String fingerprint = fingerprint();
+		if (fingerprint == null) {
+			return null;
+		}
+		File directory = new File(path, fingerprint);
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			Logging.warn("Directory '{}' configured via System Property '{}' cannot be created - caching woven byte code in memory only", directory, PROPERTY_CACHE_DIR);
+			return null;
+		}
+		return directory;
+	}
+
+	/**
+	 * @return a hash over the weaving code, the stub classes, the Java Assist version and the selected {@link Weaver}
+	 */
+	private static String fingerprint() {
+		MessageDigest digest = sha1();
+		if (digest == null) {
+			return null;
+		}
+		digest.update(CtClass.version.getBytes());
+		digest.update(KafkaJavaAgent.WEAVER.name().getBytes());
+		String[] names = new String[TransformationHelper.STUB_CLASSES.length + WEAVING_CLASSES.length];
+		System.arraycopy(TransformationHelper.STUB_CLASSES, 0, names, 0, TransformationHelper.STUB_CLASSES.length);
+		System.arraycopy(WEAVING_CLASSES, 0, names, TransformationHelper.STUB_CLASSES.length, WEAVING_CLASSES.length);
+		for (String name : names) {
+			byte[] classFile = TransformationHelper.readClassFile(name);
+			if (classFile == null) {
+				Logging.warn("Class file '{}' cannot be read - caching woven byte code in memory only", name);
+				return null;
+			}
+			digest.update(classFile);
+		}
+		return hex(digest.digest());
+	}
+
+	private static MessageDigest sha1() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		}
+	}
+
+	private static String hex(byte[] bytes) {
+		char[] chars = new char[bytes.length << 1];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[i << 1] = HEX[(bytes[i] >> 4) & 0xF];
+			chars[(i << 1) + 1] = HEX[bytes[i] & 0xF];
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * @param className the internal name of the class
+	 * @param buffer the original byte code of the class
+	 *
+	 * @return the key to pass to {@link #get(String)} and {@link #put(String, byte[])}
+	 * 		or {@code null} if SHA-1 is not available
+	 */
+	static String key(String className, byte[] buffer) {
+		MessageDigest digest = sha1();
+		if (digest == null) {
+			return null;
+		}
+		return className.replace('/', '.') + '-' + hex(digest.digest(buffer));
+	}
+
+	/**
+	 * @param key the key returned by {@link #key(String, byte[])}
+	 *
+	 * @return the woven byte code or {@code null} if the class has not been woven before
+	 */
+	static byte[] get(String key) {
+		byte[] woven = RESULTS.get(key);
+		if (woven == null) {
+			woven = read(key);
+			if (woven == null) {
+				return null;
+			}
+			remember(key, woven);
+		}
+		return woven.clone();
+	}
+
+	/**
+	 * @param key the key returned by {@link #key(String, byte[])}
+	 * @param woven the woven byte code
+	 */
+	static void put(String key, byte[] woven) {
+		remember(key, woven.clone());
+		write(key, woven);
+	}
+
+	private static void remember(String key, byte[] woven) {
+		if (RESULTS.size() < MAX_ENTRIES) {
+			RESULTS.putIfAbsent(key, woven);
+		}
+	}
+
+	private static byte[] read(String key) {
+		if (DIRECTORY == null) {
+			return null;
+		}
+		File file = new File(DIRECTORY, key + ".class");
+		if (!file.isFile()) {
+			return null;
+		}
+		try (
+			RandomAccessFile in = new RandomAccessFile(file, "r");
+		) {
+			byte[] woven = new byte[(int) in.length()];
+			in.readFully(woven);
+			return woven;
+		} catch (IOException e) {
+			Logging.warn("Reading woven byte code from '{}' failed: {}", file, e);
+			return null;
+		}
+	}
+
+	private static void write(String key, byte[] woven) {
+		if (DIRECTORY == null) {
+			return;
+		}
+		File file = new File(DIRECTORY, key + ".class");
+		if (file.isFile()) {
+			return;
+		}
+		// written to a file of its own first, so concurrently starting JVMs never read a partial class file
+		File tmp = new File(DIRECTORY, key + "." + Thread.currentThread().getId() + "." + System.nanoTime() + ".tmp");
+		try (
+			OutputStream out = new FileOutputStream(tmp);
+		) {
+			out.write(woven);
+		} catch (IOException e) {
+			Logging.warn("Writing woven byte code to '{}' failed: {}", tmp, e);
+			tmp.delete();
+			return;
+		}
+		if (!tmp.renameTo(file)) {
+			tmp.delete();
+		}
+	}
+}
@@ -1,6 +1,10 @@
 package com.dynatrace.kafka;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javassist.ClassPool;
 import javassist.CtClass;
@@ -8,22 +12,91 @@ import javassist.CtClass;
 /**
  * Base class for any class that requires loading of Stub classes located within this
  * Agent Library JAR file.<br />
- * <br /> 
+ * <br />
  * Stub Classes contain methods that are holding the enriched method body for classes
- * which are supposed to get transformed. 
- * 
+ * which are supposed to get transformed.<br />
+ * <br />
+ * Stub classes are parsed only once into a {@link ClassPool} of their own. Method bodies
+ * get copied from there into the {@link ClassPool} of the transformed class, so the
+ * templates themselves are never modified.
+ *
  * @author reinhard.pilz@dynatrace.com
  *
  */
 public class TransformationHelper {
 
-	public static CtClass loadStubClass(ClassPool classPool, String name) {
+	/**
+	 * The stub classes used by the transformations of this Agent.
+	 */
+	static final String[] STUB_CLASSES = {
+		"org/apache/kafka/clients/producer/KafkaProducerStub.class",
+		"org/apache/kafka/clients/consumer/ConsumerRecordsDollarConcatenatedIterableDollar1Stub.class",
+		"kafka/consumer/ConsumerIteratorStub.class"
+	};
+
+	private static final ClassPool STUB_POOL = new ClassPool(true);
+
+	private static final ConcurrentMap<String, CtClass> STUBS = new ConcurrentHashMap<>();
+
+	/**
+	 * Parses all {@link #STUB_CLASSES} up front, so no transformation needs to.
+	 */
+	public static void loadStubClasses() {
+		for (String name : STUB_CLASSES) {
+			loadStubClass(name);
+		}
+	}
+
+	/**
+	 * @param name the resource name of the stub class, e.g. {@code kafka/consumer/ConsumerIteratorStub.class}
+	 *
+	 * @return the parsed stub class, which must not be modified, or {@code null} if it could not be loaded
+	 */
+	public static CtClass loadStubClass(String name) {
+		CtClass ctStub = STUBS.get(name);
+		if (ctStub != null) {
+			return ctStub;
+		}
+		synchronized (STUB_POOL) {
+			ctStub = STUBS.get(name);
+			if (ctStub != null) {
+				return ctStub;
+			}
+			try (
+				InputStream in = ClassLoader.getSystemClassLoader().getResourceAsStream(name);
+			) {
+				ctStub = STUB_POOL.makeClass(in);
+				// resolving the members now, as templates are read by concurrent transformations
+				ctStub.getDeclaredMethods();
+				STUBS.put(name, ctStub);
+				return ctStub;
+			} catch (Throwable t) {
+				Logging.error("Loading of stub class '" + name + "' failed", t);
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * @param name the resource name of a class of this Agent
+	 *
+	 * @return the byte code of the class or {@code null} if it could not be read
+	 */
+	static byte[] readClassFile(String name) {
 		try (
 			InputStream in = ClassLoader.getSystemClassLoader().getResourceAsStream(name);
 		) {
-			return classPool.makeClass(in);
-		} catch (Throwable t) {
-			Logging.error("Loading of stub class '" + name + "' failed", t);
+			if (in == null) {
+				return null;
+			}
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] chunk = new byte[4096];
+			int read;
+			while ((read = in.read(chunk)) != -1) {
+				out.write(chunk, 0, read);
+			}
+			return out.toByteArray();
+		} catch (IOException e) {
 			return null;
 		}
 	}
@@ -0,0 +1,127 @@
+package com.dynatrace.kafka;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Creates virtual threads on Java 21 and later via reflection, as this Agent
+ * is compiled for and runs on older JVMs as well.<br />
+ * <br />
+ * Java 19 and 20 offer {@code Thread.ofVirtual()} as preview API only, failing unless
+ * started with {@code --enable-preview}, so they are ruled out by their feature version.
+ * A first virtual thread gets created, but not started, up front to make sure it works.
+ */
+public final class VirtualThreads {
+
+	/**
+	 * {@code Thread.ofVirtual()}, {@code null} if not available.
+	 */
+	private static final Method OF_VIRTUAL;
+
+	/**
+	 * {@code Thread.Builder.name(String)}.
+	 */
+	private static final Method NAME;
+
+	/**
+	 * {@code Thread.Builder.unstarted(Runnable)}.
+	 */
+	private static final Method UNSTARTED;
+
+	/**
+	 * The first Java feature version virtual threads are final in.
+	 */
+	private static final int MIN_FEATURE_VERSION = 21;
+
+	static {
+		Method ofVirtual = null;
+		Method name = null;
+		Method unstarted = null;
+		int featureVersion = featureVersion();
+		if (featureVersion < MIN_FEATURE_VERSION) {
+			Logging.fine("virtual threads not used, Java feature version {} is below {}", featureVersion, MIN_FEATURE_VERSION);
+		} else {
+			try {
+				Class<?> builder = Class.forName("java.lang.Thread$Builder");
+				ofVirtual = Thread.class.getMethod("ofVirtual");
+				name = builder.getMethod("name", String.class);
+				unstarted = builder.getMethod("unstarted", Runnable.class);
+				// never started, only proves that creating one works
+				unstarted.invoke(name.invoke(ofVirtual.invoke(null), "dynatrace-kafka-agent-probe"), new Runnable() {
+					@Override
+					public void run() {
+						// nothing to do
+					}
+				});
+			} catch (Exception e) {
+				ofVirtual = null;
+				Logging.fine("virtual threads not used, creating one failed: {}", rethrowIfFatal(e));
+			} catch (LinkageError e) {
+				ofVirtual = null;
+				Logging.fine("virtual threads not used, creating one failed: {}", e);
+			}
+		}
+		OF_VIRTUAL = ofVirtual;
+		NAME = name;
+		UNSTARTED = unstarted;
+	}
+
+	private VirtualThreads() {
+		// prevent instantiation
+	}
+
+	/**
+	 * @return the feature version of the running JVM, e.g. {@code 21}, via {@code Runtime.version().feature()}
+	 * 		available since Java 10, {@code 0} on older JVMs
+	 */
+	private static int featureVersion() {
+		try {
+			Object version = Runtime.class.getMethod("version").invoke(null);
+			return ((Integer) version.getClass().getMethod("feature").invoke(version)).intValue();
+		} catch (Exception e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * @return the cause of the given {@link InvocationTargetException}, the given {@link Exception} otherwise
+	 *
+	 * @throws VirtualMachineError if the reflectively invoked method failed with one, e.g. an {@link OutOfMemoryError}
+	 */
+	private static Throwable rethrowIfFatal(Exception e) {
+		if (!(e instanceof InvocationTargetException)) {
+			return e;
+		}
+		Throwable cause = e.getCause();
+		if (cause instanceof VirtualMachineError) {
+			throw (VirtualMachineError) cause;
+		}
+		return cause;
+	}
+
+	/**
+	 * @return {@code true} if the running JVM supports virtual threads
+	 */
+	public static boolean isAvailable() {
+		return OF_VIRTUAL != null;
+	}
+
+	/**
+	 * @param task the {@link Runnable} to run
+	 * @param name the name of the thread
+	 *
+	 * @return a new virtual thread, not started yet, or {@code null} if none can be created
+	 */
+	public static Thread newThread(Runnable task, String name) {
+		if (OF_VIRTUAL == null) {
+			return null;
+		}
+		try {
+			Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), name);
+			return (Thread) UNSTARTED.invoke(builder, task);
+		} catch (Exception e) {
+			Logging.warn("creating virtual thread '" + name + "' failed", rethrowIfFatal(e));
+			return null;
+		}
+	}
+}
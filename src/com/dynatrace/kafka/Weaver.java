@@ -0,0 +1,21 @@
+package com.dynatrace.kafka;
+
+/**
+ * The ways methods of Kafka classes get wrapped.
+ */
+public enum Weaver {
+
+	/**
+	 * Java Assist parses the class, renames the method and compiles a new one
+	 * using the method body of a stub class.
+	 */
+	JAVASSIST,
+
+	/**
+	 * The class file is rewritten in a single pass, renaming the method and
+	 * appending a new one, see {@link BytecodeWeaver}. Constructor enrichments
+	 * and {@code KafkaConsumer.poll} always use {@link #JAVASSIST}.
+	 */
+	BYTECODE;
+
+}
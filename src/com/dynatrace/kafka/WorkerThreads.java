@@ -0,0 +1,20 @@
+package com.dynatrace.kafka;
+
+/**
+ * The kind of threads the workers of the tagging engine run on.
+ */
+public enum WorkerThreads {
+
+	/**
+	 * Every worker owns a daemon platform thread.
+	 */
+	PLATFORM,
+
+	/**
+	 * Every worker runs on a virtual thread, so workers do not take platform threads
+	 * while waiting for acknowledged records. Requires Java 21, older JVMs fall back
+	 * to {@link #PLATFORM}, see {@link VirtualThreads}.
+	 */
+	VIRTUAL;
+
+}
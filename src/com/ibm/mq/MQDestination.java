@@ -6,11 +6,18 @@ public class MQDestination extends MQManagedObject {
 		super(name, connectionReference);
 	}
 
-	public synchronized void put(MQMessage message) throws MQException {
+	/**
+	 * The point the MQ Sensors of the producer side are placed on. Does nothing and
+	 * holds no lock, so threads sharing a destination never wait for each other.
+	 */
+	public void put(MQMessage message) throws MQException {
 	}
 	
-	public synchronized void get(MQMessage message) throws MQException {
-		System.out.println("MQDestination.get(" + message + ")");
+	/**
+	 * The point the MQ Sensors of the consumer side are placed on. Does nothing and
+	 * holds no lock, so threads sharing a destination never wait for each other.
+	 */
+	public void get(MQMessage message) throws MQException {
 	}
 	
 
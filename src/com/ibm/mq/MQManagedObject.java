@@ -10,8 +10,10 @@ public class MQManagedObject {
 		this.connectionReference = connectionReference;
 	}
 	
-	public synchronized void close() {
-		System.out.println(getClass().getName());
+	/**
+	 * Nothing to release, destinations are shared and live as long as they are cached.
+	 */
+	public void close() {
 	}
 	
 	public MQQueueManager getDynatraceConnectionReference() {
@@ -3,16 +3,82 @@ package com.ibm.mq;
 import java.io.EOFException;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 
 public class MQMessage extends MQMD {
 	
 	private static final Charset CHARSET = Charset.defaultCharset(); 
 	
+	/**
+	 * The encoded digits {@code 0} to {@code 9} and the minus sign, the same bytes
+	 * {@code String.valueOf(...).getBytes(CHARSET)} would produce. {@code null} in case
+	 * {@link #CHARSET} needs more than one byte per character.
+	 */
+	private static final byte[] SYMBOLS = resolveSymbols();
+	
+	private static final int MINUS = 10;
+	
+	/**
+	 * Creates an empty message, to be filled via {@link #set(long, int)}.
+	 */
+	public MQMessage() {
+	}
+	
 	public MQMessage(long offset, int partition) {
-		byte[] bOffset = String.valueOf(offset).getBytes(CHARSET);
-		byte[] bPartition = String.valueOf(partition).getBytes(CHARSET);
-		System.arraycopy(bPartition, 0, this.messageId, 0, bPartition.length);
-		System.arraycopy(bOffset, 0, this.correlationId, 0, bOffset.length);
+		set(offset, partition);
+	}
+	
+	/**
+	 * Replaces message id and correlation id of this message with the given
+	 * {@code partition} and {@code offset}, without allocating any memory.
+	 * 
+	 * @param offset the offset of the Kafka record, stored as correlation id
+	 * @param partition the partition of the Kafka record, stored as message id
+	 */
+	public void set(long offset, int partition) {
+		if (SYMBOLS == null) {
+			byte[] bOffset = String.valueOf(offset).getBytes(CHARSET);
+			byte[] bPartition = String.valueOf(partition).getBytes(CHARSET);
+			System.arraycopy(bPartition, 0, this.messageId, 0, bPartition.length);
+			Arrays.fill(this.messageId, bPartition.length, this.messageId.length, (byte) 0);
+			System.arraycopy(bOffset, 0, this.correlationId, 0, bOffset.length);
+			Arrays.fill(this.correlationId, bOffset.length, this.correlationId.length, (byte) 0);
+			return;
+		}
+		encode(partition, this.messageId);
+		encode(offset, this.correlationId);
+	}
+	
+	/**
+	 * Writes the decimal representation of the given {@code value} to the start of {@code target}
+	 * and clears the remaining bytes.
+	 */
+	private static void encode(long value, byte[] target) {
+		boolean negative = value < 0;
+		// calculating with negative numbers also covers Long.MIN_VALUE
+		long remaining = negative ? value : -value;
+		int digits = 1;
+		for (long rest = remaining / 10; rest != 0; rest /= 10) {
+			digits++;
+		}
+		int start = 0;
+		if (negative) {
+			target[start++] = SYMBOLS[MINUS];
+		}
+		int end = start + digits;
+		for (int i = end - 1; i >= start; i--) {
+			target[i] = SYMBOLS[(int) -(remaining % 10)];
+			remaining /= 10;
+		}
+		Arrays.fill(target, end, target.length, (byte) 0);
+	}
+	
+	private static byte[] resolveSymbols() {
+		byte[] symbols = "0123456789-".getBytes(CHARSET);
+		if (symbols.length != MINUS + 1) {
+			return null;
+		}
+		return symbols;
 	}
 	
 	public int getMessageLength() throws IOException {
@@ -6,9 +6,9 @@ public class MQQueue extends MQManagedObject {
 		super(name, connectionReference);
 	}
 
-	public synchronized void put(MQMessage message) throws MQException {
+	public void put(MQMessage message) throws MQException {
 	}
 	
-	public synchronized void get(MQMessage message) throws MQException {
+	public void get(MQMessage message) throws MQException {
 	}
 }
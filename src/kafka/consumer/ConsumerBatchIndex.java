@@ -0,0 +1,315 @@
+package kafka.consumer;
+
+import java.util.Arrays;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+
+import com.dynatrace.kafka.TopicFilter;
+import com.dynatrace.kafka.TraceTagHeaders;
+
+/**
+ * The records of the most recently polled batch which carry a trace tag,
+ * kept per consuming thread. Records of topics excluded by the {@link TopicFilter}
+ * are left out without reading their headers.<br />
+ * <br />
+ * Consecutive records of the same partition carrying the same trace tag are
+ * collapsed into one offset range. Entries are kept in iteration order, which
+ * allows looking up records in constant time while iterating the batch.<br />
+ * <br />
+ * Records looked up out of order, e.g. via {@code ConsumerRecords.records(topic)},
+ * on a second iteration or after skipping records, and records not carrying a trace
+ * tag are looked up within the ranges of their topic and partition, grouped by a hash
+ * table built on the first such lookup of a batch. Looking up the range following the
+ * one found before takes constant time, any other range a binary search.
+ */
+final class ConsumerBatchIndex {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private static final ThreadLocal<ConsumerBatchIndex> CURRENT = new ThreadLocal<ConsumerBatchIndex>() {
+		@Override
+		protected ConsumerBatchIndex initialValue() {
+			return new ConsumerBatchIndex();
+		}
+	};
+
+	private String[] topics = new String[INITIAL_CAPACITY];
+	private int[] partitions = new int[INITIAL_CAPACITY];
+	private long[] firstOffsets = new long[INITIAL_CAPACITY];
+	private long[] lastOffsets = new long[INITIAL_CAPACITY];
+	private byte[][] traceTags = new byte[INITIAL_CAPACITY][];
+
+	/**
+	 * Per slot the group of the ranges of a topic and partition, {@code -1} for an empty slot.
+	 */
+	private int[] slots = new int[INITIAL_CAPACITY << 1];
+
+	/**
+	 * The ranges grouped by topic and partition, in iteration order and thereby ascending offsets within a group.
+	 */
+	private int[] grouped = new int[INITIAL_CAPACITY];
+
+	/**
+	 * Per group the index of its first range within {@link #grouped}, followed by the end of the last group.
+	 */
+	private int[] groupStarts = new int[INITIAL_CAPACITY + 1];
+
+	/**
+	 * Per range its group, while grouping.
+	 */
+	private int[] groups = new int[INITIAL_CAPACITY];
+
+	/**
+	 * The group and the index within {@link #grouped} of the range found last, {@code -1} if none.
+	 */
+	private int lastGroup;
+	private int lastPosition;
+
+	private int size;
+	private int cursor;
+	private boolean extendable;
+	private boolean building;
+	private boolean built;
+	private boolean hashed;
+
+	private ConsumerBatchIndex() {
+	}
+
+	/**
+	 * @return the {@link ConsumerBatchIndex} of the current thread
+	 */
+	static ConsumerBatchIndex current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * @return {@code true} while {@link #build(ConsumerRecords)} iterates over a batch
+	 */
+	boolean isBuilding() {
+		return building;
+	}
+
+	/**
+	 * @return {@code false} until a batch got indexed on this thread, e.g. if {@code KafkaConsumer.poll}
+	 * 		has been woven ahead of time without batch mode
+	 */
+	boolean isBuilt() {
+		return built;
+	}
+
+	/**
+	 * Replaces the contents of this index with the records of the given batch carrying a trace tag.
+	 *
+	 * @param records the batch just returned by {@code KafkaConsumer.poll}
+	 */
+	void build(ConsumerRecords<?, ?> records) {
+		Arrays.fill(traceTags, 0, size, null);
+		Arrays.fill(topics, 0, size, null);
+		size = 0;
+		cursor = 0;
+		extendable = false;
+		hashed = false;
+		lastGroup = -1;
+		built = true;
+		if ((records == null) || records.isEmpty()) {
+			return;
+		}
+		building = true;
+		try {
+			for (ConsumerRecord<?, ?> record : records) {
+				if (!TopicFilter.isTraced(record.topic())) {
+					extendable = false;
+					continue;
+				}
+				byte[] traceTag = TraceTagHeaders.read(record);
+				if (traceTag == null) {
+					extendable = false;
+					continue;
+				}
+				add(record.topic(), record.partition(), record.offset(), traceTag);
+			}
+		} finally {
+			building = false;
+		}
+	}
+
+	private void add(String topic, int partition, long offset, byte[] traceTag) {
+		int last = size - 1;
+		if (extendable && (partitions[last] == partition) && topics[last].equals(topic) && Arrays.equals(traceTags[last], traceTag)) {
+			lastOffsets[last] = offset;
+			return;
+		}
+		if (size == topics.length) {
+			int capacity = size << 1;
+			topics = Arrays.copyOf(topics, capacity);
+			partitions = Arrays.copyOf(partitions, capacity);
+			firstOffsets = Arrays.copyOf(firstOffsets, capacity);
+			lastOffsets = Arrays.copyOf(lastOffsets, capacity);
+			traceTags = Arrays.copyOf(traceTags, capacity);
+		}
+		topics[size] = topic;
+		partitions[size] = partition;
+		firstOffsets[size] = offset;
+		lastOffsets[size] = offset;
+		traceTags[size] = traceTag;
+		size++;
+		extendable = true;
+	}
+
+	/**
+	 * Looks up the trace tag of a record of the indexed batch. Records looked up
+	 * in the order they are iterated are found in constant time.
+	 *
+	 * @return the trace tag of the record or {@code null} if the record does not carry one
+	 */
+	byte[] traceTag(String topic, int partition, long offset) {
+		if (size == 0) {
+			return null;
+		}
+		// while iterating, the next record carrying a trace tag belongs either to the current or to the next range
+		for (int i = cursor; (i < size) && (i <= cursor + 1); i++) {
+			if (contains(i, topic, partition, offset)) {
+				cursor = i;
+				return traceTags[i];
+			}
+		}
+		if (!hashed) {
+			hash();
+		}
+		int group = group(topic, partition);
+		if (group < 0) {
+			return null;
+		}
+		int position = floor(group, offset);
+		if (position < 0) {
+			return null;
+		}
+		lastGroup = group;
+		lastPosition = position;
+		int i = grouped[position];
+		if (offset > lastOffsets[i]) {
+			return null;
+		}
+		cursor = i;
+		return traceTags[i];
+	}
+
+	private boolean contains(int i, String topic, int partition, long offset) {
+		return (partitions[i] == partition) && (firstOffsets[i] <= offset) && (offset <= lastOffsets[i]) && topics[i].equals(topic);
+	}
+
+	/**
+	 * @return the group of the ranges of the given topic and partition or {@code -1} if there are none
+	 */
+	private int group(String topic, int partition) {
+		if (lastGroup >= 0) {
+			int i = grouped[groupStarts[lastGroup]];
+			if ((partitions[i] == partition) && topics[i].equals(topic)) {
+				return lastGroup;
+			}
+		}
+		int mask = slots.length - 1;
+		for (int slot = slot(topic, partition, mask); slots[slot] >= 0; slot = (slot + 1) & mask) {
+			int group = slots[slot];
+			int i = grouped[groupStarts[group]];
+			if ((partitions[i] == partition) && topics[i].equals(topic)) {
+				return group;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the index within {@link #grouped} of the last range of the given group starting
+	 * 		at or before the given offset, {@code -1} if all of them start after it
+	 */
+	private int floor(int group, long offset) {
+		int start = groupStarts[group];
+		int end = groupStarts[group + 1];
+		if (group == lastGroup) {
+			// records iterated in order are found within the range found last or the one after
+			for (int position = lastPosition; (position < end) && (position <= lastPosition + 1); position++) {
+				if ((firstOffsets[grouped[position]] <= offset) && ((position + 1 == end) || (offset < firstOffsets[grouped[position + 1]]))) {
+					return position;
+				}
+			}
+		}
+		int low = start;
+		int high = end - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (firstOffsets[grouped[middle]] <= offset) {
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return (high >= start) ? high : -1;
+	}
+
+	/**
+	 * Groups the ranges by topic and partition, at most half of the slots get used.
+	 */
+	private void hash() {
+		int capacity = slots.length;
+		while (capacity < (size << 1)) {
+			capacity <<= 1;
+		}
+		if (capacity != slots.length) {
+			slots = new int[capacity];
+		}
+		if (grouped.length < size) {
+			grouped = new int[topics.length];
+			groups = new int[topics.length];
+			groupStarts = new int[topics.length + 1];
+		}
+		Arrays.fill(slots, -1);
+		int mask = capacity - 1;
+		int groupCount = 0;
+		// first the number of ranges per group, using the representative range of a group
+		for (int i = 0; i < size; i++) {
+			int slot = slot(topics[i], partitions[i], mask);
+			while (true) {
+				int group = slots[slot];
+				if (group < 0) {
+					group = groupCount++;
+					slots[slot] = group;
+					grouped[group] = i;
+					groupStarts[group] = 0;
+				} else {
+					int first = grouped[group];
+					if ((partitions[first] != partitions[i]) || !topics[first].equals(topics[i])) {
+						slot = (slot + 1) & mask;
+						continue;
+					}
+				}
+				groups[i] = group;
+				groupStarts[group]++;
+				break;
+			}
+		}
+		// then the start of every group, followed by its ranges in iteration order
+		int start = 0;
+		for (int group = 0; group < groupCount; group++) {
+			int count = groupStarts[group];
+			groupStarts[group] = start;
+			start += count;
+		}
+		groupStarts[groupCount] = start;
+		for (int i = 0; i < size; i++) {
+			grouped[groupStarts[groups[i]]++] = i;
+		}
+		// filling advanced every start to the start of the next group
+		for (int group = groupCount; group > 0; group--) {
+			groupStarts[group] = groupStarts[group - 1];
+		}
+		groupStarts[0] = 0;
+		hashed = true;
+	}
+
+	private static int slot(String topic, int partition, int mask) {
+		int hash = topic.hashCode() * 31 + partition;
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+}
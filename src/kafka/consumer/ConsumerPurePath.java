@@ -0,0 +1,99 @@
+package kafka.consumer;
+
+import com.dynatrace.adk.Tagging;
+import com.dynatrace.kafka.AgentMetrics;
+import com.dynatrace.kafka.TaggingCache;
+
+/**
+ * The server side PurePath a consuming thread runs while processing a record
+ * carrying a trace tag header.<br />
+ * <br />
+ * A PurePath started for a record lasts until the consuming thread asks for
+ * the next record, so it covers the processing of that record. Consecutive
+ * records sharing the very same trace tag instance, as handed out by
+ * {@link ConsumerBatchIndex}, continue the same PurePath.
+ */
+final class ConsumerPurePath {
+
+	private static final ThreadLocal<ConsumerPurePath> CURRENT = new ThreadLocal<ConsumerPurePath>() {
+		@Override
+		protected ConsumerPurePath initialValue() {
+			return new ConsumerPurePath();
+		}
+	};
+
+	private Tagging tagging;
+	private byte[] traceTag;
+
+	private ConsumerPurePath() {
+	}
+
+	/**
+	 * @return the {@link ConsumerPurePath} of the current thread
+	 */
+	static ConsumerPurePath current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Ends the PurePath started for the previous record and starts a new one
+	 * linked to the given trace tag.
+	 *
+	 * @param traceTag the trace tag the next record carries, {@code null} if there is none
+	 */
+	void continueWith(byte[] traceTag) {
+		if ((traceTag != null) && (traceTag == this.traceTag)) {
+			return;
+		}
+		end();
+		if (traceTag == null) {
+			return;
+		}
+		Tagging tagging = TaggingCache.current();
+		if (tagging == null) {
+			return;
+		}
+		if (!tagging.isTagValid(traceTag)) {
+			return;
+		}
+		tagging.setTag(traceTag);
+		tagging.startServerPurePath();
+		AgentMetrics.CONSUMER_PURE_PATHS_STARTED.increment();
+		this.tagging = tagging;
+		this.traceTag = traceTag;
+	}
+
+	/**
+	 * Starts a PurePath linked to the given trace tag and ends it right away, for callers
+	 * which do not see the record getting processed. The PurePath only marks the receipt
+	 * of the record, so no processing of other records gets attributed to it.
+	 *
+	 * @param traceTag the trace tag a consumed record carries
+	 */
+	static void link(byte[] traceTag) {
+		Tagging tagging = TaggingCache.current();
+		if (tagging == null) {
+			return;
+		}
+		if (!tagging.isTagValid(traceTag)) {
+			return;
+		}
+		tagging.setTag(traceTag);
+		tagging.startServerPurePath();
+		tagging.endServerPurePath();
+		AgentMetrics.CONSUMER_PURE_PATHS_STARTED.increment();
+	}
+
+	/**
+	 * Ends the PurePath started for the previous record, if any.
+	 */
+	void end() {
+		Tagging tagging = this.tagging;
+		if (tagging == null) {
+			return;
+		}
+		this.tagging = null;
+		this.traceTag = null;
+		tagging.endServerPurePath();
+	}
+}
@@ -1,35 +1,162 @@
 package kafka.consumer;
 
+import java.util.Arrays;
+
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
 
-import com.dynatrace.adk.DynaTraceADKFactory;
 import com.dynatrace.adk.Tagging;
+import com.dynatrace.kafka.AdkBootstrap;
+import com.dynatrace.kafka.AgentMetrics;
+import com.dynatrace.kafka.ConsumerBatching;
 import com.dynatrace.kafka.CustomTagGen;
+import com.dynatrace.kafka.DestinationCache;
+import com.dynatrace.kafka.Interceptors;
+import com.dynatrace.kafka.Logging;
+import com.dynatrace.kafka.Sampler;
+import com.dynatrace.kafka.TaggingCache;
+import com.dynatrace.kafka.TopicFilter;
+import com.dynatrace.kafka.TraceTagHeaders;
 import com.ibm.mq.MQDestination;
 import com.ibm.mq.MQException;
 import com.ibm.mq.MQMessage;
-import com.ibm.mq.MQQueueManager;
 
 import kafka.message.MessageAndMetadata;
 
 public class PurePathStarter {
 	
-	static {
-		DynaTraceADKFactory.initialize();
+	/**
+	 * One {@link MQMessage} per consuming thread, refilled for every record.
+	 * The MQ Sensors evaluate it synchronously within {@link MQDestination#get(MQMessage)}.
+	 */
+	private static final ThreadLocal<MQMessage> MESSAGES = new ThreadLocal<MQMessage>() {
+		@Override
+		protected MQMessage initialValue() {
+			return new MQMessage();
+		}
+	};
+	
+	/**
+	 * Called by {@code KafkaConsumer.poll} in batch mode, see {@link ConsumerBatching}.
+	 * 
+	 * @param records the batch just polled
+	 * 
+	 * @return the given batch
+	 */
+	public static ConsumerRecords<?, ?> handle(ConsumerRecords<?, ?> records) {
+		// KafkaConsumer.poll may have been woven ahead of time with a different configuration
+		if (Interceptors.conflicts(false) || !ConsumerBatching.isEnabled()) {
+			return records;
+		}
+		if (!AdkBootstrap.isReady()) {
+			return records;
+		}
+		ConsumerPurePath.current().end();
+		ConsumerBatchIndex.current().build(records);
+		return records;
 	}
 	
+	/**
+	 * Called by {@code TracingConsumerInterceptor.onConsume} before {@code KafkaConsumer.poll}
+	 * returns the batch, see {@link com.dynatrace.kafka.Interceptors}.<br />
+	 * <br />
+	 * Links every record carrying a trace tag other than the one of the record before
+	 * via a PurePath which ends before this method returns. The interceptor does not see
+	 * the records getting processed, so in this mode the processing of a record is not
+	 * covered by any PurePath and no PurePath is left open between two polls.
+	 *
+	 * @param records the batch just polled
+	 *
+	 * @return the given batch
+	 */
+	public static ConsumerRecords<?, ?> intercept(ConsumerRecords<?, ?> records) {
+		if (Interceptors.conflicts(true)) {
+			return records;
+		}
+		if (!AdkBootstrap.isReady()) {
+			AgentMetrics.RECORDS_NOT_READY.increment();
+			return records;
+		}
+		if ((records == null) || records.isEmpty()) {
+			return records;
+		}
+		long consumed = 0;
+		long filtered = 0;
+		byte[] previous = null;
+		for (ConsumerRecord<?, ?> record : records) {
+			if (!TopicFilter.isTraced(record.topic())) {
+				filtered++;
+				continue;
+			}
+			consumed++;
+			byte[] traceTag = TraceTagHeaders.read(record);
+			if ((traceTag == null) || Arrays.equals(traceTag, previous)) {
+				continue;
+			}
+			ConsumerPurePath.link(traceTag);
+			previous = traceTag;
+		}
+		AgentMetrics.RECORDS_CONSUMED.add(consumed);
+		AgentMetrics.RECORDS_FILTERED.add(filtered);
+		return records;
+	}
+
 	public static ConsumerRecord<?, ?> handle(ConsumerRecord<?, ?> record) {
+		if (Interceptors.conflicts(false)) {
+			return record;
+		}
+		if ((record != null) && !TopicFilter.isTraced(record.topic())) {
+			return filtered(record);
+		}
+		if (!AdkBootstrap.isReady()) {
+			AgentMetrics.RECORDS_NOT_READY.increment();
+			return record;
+		}
+		if (ConsumerBatching.isEnabled()) {
+			ConsumerBatchIndex index = ConsumerBatchIndex.current();
+			if (index.isBuilding()) {
+				return record;
+			}
+			// otherwise KafkaConsumer.poll has not been woven, the records get linked one by one
+			if (index.isBuilt()) {
+				byte[] traceTag = null;
+				if (record != null) {
+					AgentMetrics.RECORDS_CONSUMED.increment();
+					traceTag = index.traceTag(record.topic(), record.partition(), record.offset());
+				}
+				ConsumerPurePath.current().continueWith(traceTag);
+				return record;
+			}
+		}
 		if (record == null) {
+			if (TraceTagHeaders.isEnabled()) {
+				ConsumerPurePath.current().end();
+			}
 			return record;
 		}
-		String topic = record.topic();
-		MQMessage mqMessage = new MQMessage(record.offset(), record.partition());
-		MQDestination mqQueue = new MQDestination(topic, MQQueueManager.INSTANCE);
-		try {
-			mqQueue.get(mqMessage);
-		} catch (MQException e) {
-			e.printStackTrace();
+		AgentMetrics.RECORDS_CONSUMED.increment();
+		if (TraceTagHeaders.isEnabled()) {
+			ConsumerPurePath.current().continueWith(TraceTagHeaders.read(record));
+			return record;
+		}
+		get(record.topic(), record.offset(), record.partition());
+		return record;
+	}
+	
+	/**
+	 * Passes through a record of a topic excluded by the {@link TopicFilter}.
+	 */
+	private static ConsumerRecord<?, ?> filtered(ConsumerRecord<?, ?> record) {
+		if (!TraceTagHeaders.isEnabled()) {
+			AgentMetrics.RECORDS_FILTERED.increment();
+			return record;
+		}
+		if (ConsumerBatching.isEnabled() && ConsumerBatchIndex.current().isBuilding()) {
+			return record;
 		}
+		AgentMetrics.RECORDS_FILTERED.increment();
+		// the PurePath of the previous record must not cover processing this one
+		ConsumerPurePath.current().end();
 		return record;
 	}
 	
@@ -37,22 +164,38 @@ public class PurePathStarter {
 		if (mamd == null) {
 			return process(mamd);
 		}
-		String topic = mamd.topic();
-		MQMessage mqMessage = new MQMessage(mamd.offset(), mamd.partition());
-		MQDestination mqQueue = new MQDestination(topic, MQQueueManager.INSTANCE);
+		if (!TopicFilter.isTraced(mamd.topic())) {
+			AgentMetrics.RECORDS_FILTERED.increment();
+			return process(mamd);
+		}
+		if (!AdkBootstrap.isReady()) {
+			AgentMetrics.RECORDS_NOT_READY.increment();
+			return process(mamd);
+		}
+		AgentMetrics.RECORDS_CONSUMED.increment();
+		get(mamd.topic(), mamd.offset(), mamd.partition());
+		return process(mamd);
+	}
+	
+	private static void get(String topic, long offset, int partition) {
+		if (!Sampler.sample(topic, partition, offset)) {
+			return;
+		}
+		MQMessage mqMessage = MESSAGES.get();
+		mqMessage.set(offset, partition);
+		MQDestination mqQueue = DestinationCache.get(topic);
 		try {
 			mqQueue.get(mqMessage);
 		} catch (MQException e) {
-			e.printStackTrace();
+			Logging.warn("fake MQ get failed", e);
 		}
-		return process(mamd);
 	}
 
 	public static MessageAndMetadata handle_(MessageAndMetadata mamd) {
-		if (mamd == null) {
-			return null;
+		if ((mamd == null) || !AdkBootstrap.isReady()) {
+			return mamd;
 		}
-		Tagging tagging = DynaTraceADKFactory.createTagging();
+		Tagging tagging = TaggingCache.current();
 		if (tagging == null) {
 			return mamd;
 		}
@@ -0,0 +1,16 @@
+package org.apache.kafka.clients.consumer;
+
+import java.util.Map;
+
+import org.apache.kafka.common.Configurable;
+import org.apache.kafka.common.TopicPartition;
+
+public interface ConsumerInterceptor<K, V> extends Configurable {
+
+	public ConsumerRecords<K, V> onConsume(ConsumerRecords<K, V> records);
+
+	public void onCommit(Map<TopicPartition, OffsetAndMetadata> offsets);
+
+	public void close();
+
+}
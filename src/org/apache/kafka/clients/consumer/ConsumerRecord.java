@@ -1,5 +1,7 @@
 package org.apache.kafka.clients.consumer;
 
+import org.apache.kafka.common.header.Headers;
+
 public class ConsumerRecord<K, V> {
 
 	public long offset() {
@@ -13,4 +15,8 @@ public class ConsumerRecord<K, V> {
 	public String topic() {
 		return null;
 	}
+	
+	public Headers headers() {
+		return null;
+	}
 }
@@ -1,115 +1,664 @@
 package org.apache.kafka.clients.producer;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 
-import com.dynatrace.adk.DynaTraceADKFactory;
 import com.dynatrace.adk.Tagging;
+import com.dynatrace.kafka.AdkBootstrap;
+import com.dynatrace.kafka.AgentMetrics;
+import com.dynatrace.kafka.AgentProperties;
+import com.dynatrace.kafka.DestinationCache;
+import com.dynatrace.kafka.Interceptors;
+import com.dynatrace.kafka.Logging;
+import com.dynatrace.kafka.OverflowPolicy;
+import com.dynatrace.kafka.RingBuffer;
+import com.dynatrace.kafka.Sampler;
+import com.dynatrace.kafka.StripedCounter;
+import com.dynatrace.kafka.TaggingCache;
+import com.dynatrace.kafka.TopicFilter;
+import com.dynatrace.kafka.TraceTagHeaders;
+import com.dynatrace.kafka.VirtualThreads;
+import com.dynatrace.kafka.WorkerThreads;
 import com.ibm.mq.MQDestination;
 import com.ibm.mq.MQException;
 import com.ibm.mq.MQMessage;
-import com.ibm.mq.MQQueueManager;
 
-public class KafkaProducerTaggingEngine extends Thread {
-	
-	static {
-		DynaTraceADKFactory.initialize();
-	}
-	
-	private static class TaggedFuture {
-		
-		public final Future<RecordMetadata> future;
+/**
+ * Links the PurePaths of acknowledged records on the producer side.<br />
+ * <br />
+ * The work is spread over several workers, see {@link #PROPERTY_ENGINE_WORKERS}.
+ * Records are routed by topic partition, so the records of one partition are
+ * always linked by the same worker in the order they got acknowledged.<br />
+ * <br />
+ * The Dynatrace ADK is initialized by {@link AdkBootstrap}, records sent before are
+ * passed through untouched.
+ */
+public class KafkaProducerTaggingEngine {
+
+	/**
+	 * System Property for the number of acknowledged records which may wait for
+	 * getting linked, spread over all workers. The share of every worker is rounded
+	 * up to the next power of two, defaults to {@code 65536}.
+	 */
+	private static final String PROPERTY_QUEUE_CAPACITY = "com.dynatrace.kafka.agent.queue.capacity";
+
+	/**
+	 * System Property for the number of threads linking acknowledged records, each one
+	 * owning an equal share of the queue capacity. Defaults to the number of processors.
+	 */
+	private static final String PROPERTY_ENGINE_WORKERS = "com.dynatrace.kafka.agent.engine.workers";
+
+	/**
+	 * System Property selecting the {@link WorkerThreads} the workers run on.
+	 * Defaults to {@link WorkerThreads#PLATFORM}.
+	 */
+	private static final String PROPERTY_ENGINE_THREADS = "com.dynatrace.kafka.agent.engine.threads";
+
+	/**
+	 * System Property for the {@link OverflowPolicy} applied once the queue of a worker is full.
+	 * Defaults to {@link OverflowPolicy#DROP}.
+	 */
+	private static final String PROPERTY_QUEUE_OVERFLOW = "com.dynatrace.kafka.agent.queue.overflow";
+
+	/**
+	 * System Property for {@link OverflowPolicy#SAMPLE}. Once the queue of a worker is half full
+	 * only one out of this many records gets linked. Defaults to {@code 10}.
+	 */
+	private static final String PROPERTY_QUEUE_SAMPLE_RATE = "com.dynatrace.kafka.agent.queue.sample.rate";
+
+	/**
+	 * System Property for {@link OverflowPolicy#BLOCK}. The number of milliseconds
+	 * a sending thread waits for a free slot. Defaults to {@code 10}.
+	 */
+	private static final String PROPERTY_QUEUE_BLOCK_TIMEOUT = "com.dynatrace.kafka.agent.queue.block.timeout.ms";
+
+	/**
+	 * System Property for the number of milliseconds the JVM shutdown waits for the
+	 * workers to link the records acknowledged so far. Defaults to {@code 2000}.
+	 */
+	private static final String PROPERTY_SHUTDOWN_TIMEOUT = "com.dynatrace.kafka.agent.shutdown.timeout.ms";
+
+	/**
+	 * How long {@link #stop(long, TimeUnit)} waits for a worker thread to terminate once interrupted.
+	 */
+	private static final long TERMINATION_TIMEOUT_MILLIS = 100;
+
+	/**
+	 * One {@link MQMessage} per worker thread, refilled for every record.
+	 * The MQ Sensors evaluate it synchronously within {@link MQDestination#put(MQMessage)}.
+	 */
+	private static final ThreadLocal<MQMessage> MESSAGES = new ThreadLocal<MQMessage>() {
+		@Override
+		protected MQMessage initialValue() {
+			return new MQMessage();
+		}
+	};
+
+	/**
+	 * Wraps the {@link Callback} passed to {@code KafkaProducer.send}.<br />
+	 * <br />
+	 * The trace tag is captured on the sending thread. Once Kafka acknowledges
+	 * the record the callback hands itself over to the engine, which links
+	 * the PurePath using the now known topic, partition and offset.
+	 */
+	private static class TaggedCallback implements Callback {
+
+		private static final AtomicIntegerFieldUpdater<TaggedCallback> RELEASED = AtomicIntegerFieldUpdater.newUpdater(TaggedCallback.class, "released");
+
+		public final Callback callback;
 		public final byte[] traceTag;
-		
-		public TaggedFuture(Future<RecordMetadata> future) {
-			this.future = future;
-			this.traceTag = resolveTraceTag();
-		}
-		
-		private byte[] resolveTraceTag() {
-			Tagging tagging = DynaTraceADKFactory.createTagging();
-			if (tagging == null) {
-				return null;
+		public final boolean reserved;
+		public final long sendTime = System.nanoTime();
+		public RecordMetadata recordMetadata;
+
+		/**
+		 * {@code 1} once the slot reserved for this record has been freed, see {@link KafkaProducerTaggingEngine#release(TaggedCallback)}.
+		 */
+		private volatile int released;
+
+		public TaggedCallback(Callback callback, byte[] traceTag, boolean reserved) {
+			this.callback = callback;
+			this.traceTag = traceTag;
+			this.reserved = reserved;
+		}
+
+		/**
+		 * @return {@code true} exactly once if a slot has been reserved for this record
+		 */
+		boolean release() {
+			return reserved && RELEASED.compareAndSet(this, 0, 1);
+		}
+
+		@Override
+		public void onCompletion(RecordMetadata metadata, Exception exception) {
+			if ((exception == null) && (metadata != null)) {
+				AgentMetrics.ACK_LATENCY.record(System.nanoTime() - sendTime);
+				if (Sampler.sample(metadata.topic(), metadata.partition(), metadata.offset())) {
+					this.recordMetadata = metadata;
+					Holder.INSTANCE.enqueue(this);
+				} else {
+					// the client side of the link has been created when sending, see resolveTraceTag()
+					AgentMetrics.TAGS_UNMATCHED.increment();
+					Holder.INSTANCE.release(this);
+				}
+			} else {
+				Holder.INSTANCE.release(this);
 			}
-			byte[] currentTag = tagging.getTag();
-			if (!tagging.isTagValid(currentTag)) {
-				return null;
+			if (callback != null) {
+				callback.onCompletion(metadata, exception);
 			}
-			tagging.linkClientPurePath(true);
-			return currentTag;
 		}
 	}
-	
-	public static final KafkaProducerTaggingEngine INSTANCE = create();
-	
-	private final BlockingQueue<TaggedFuture> QUEUE = new LinkedBlockingQueue<>();
-	
-	private static KafkaProducerTaggingEngine create() {
-		KafkaProducerTaggingEngine engine = new KafkaProducerTaggingEngine();
-		engine.start();
-		
-		return engine;
-	}
-	
-	private KafkaProducerTaggingEngine() {
-		setDaemon(true);
-	}
-	
-	public static Future<RecordMetadata> handle(Future<RecordMetadata> future) {
-		INSTANCE.QUEUE.add(new TaggedFuture(future));
-		return future;
-	}
-	
-	public void sendMQMessage(String topic, int partition, long offset) {
-		MQMessage mqMessage = new MQMessage(offset, partition);
-		MQDestination mqQueue = new MQDestination(topic, MQQueueManager.INSTANCE);
-		try {
-			mqQueue.put(mqMessage);
-		} catch (MQException e) {
-			e.printStackTrace();
+
+	/**
+	 * Links the acknowledged records of the topic partitions routed to it, in the
+	 * order they got acknowledged. Owns a queue of its own, so workers never contend
+	 * with each other and a slow partition only fills the queue of its own worker.
+	 */
+	private static final class Shard implements Runnable, AgentMetrics.Queue {
+
+		private final KafkaProducerTaggingEngine engine;
+		private final int index;
+		private final RingBuffer<TaggedCallback> queue;
+		private final StripedCounter dropped = new StripedCounter();
+		private final StripedCounter linked = new StripedCounter();
+		private volatile Thread thread;
+
+		Shard(KafkaProducerTaggingEngine engine, int index, int capacity) {
+			this.engine = engine;
+			this.index = index;
+			this.queue = new RingBuffer<>(capacity);
 		}
-	}
-	
-	@Override
-	public void run() {
-		while (true) {
-			try {
-				TaggedFuture taggedFuture = QUEUE.take();
-				if (taggedFuture == null) {
-					continue;
+
+		@Override
+		public String name() {
+			return "engine-" + index;
+		}
+
+		@Override
+		public int size() {
+			return queue.size();
+		}
+
+		@Override
+		public int capacity() {
+			return queue.capacity();
+		}
+
+		@Override
+		public long dropped() {
+			return dropped.sum();
+		}
+
+		@Override
+		public long processed() {
+			return linked.sum();
+		}
+
+		/**
+		 * Hands over an acknowledged record to this worker, applying the
+		 * configured {@link OverflowPolicy} if its queue cannot take it.
+		 * Called on the network thread of the Kafka producer, so it never waits.
+		 */
+		void enqueue(TaggedCallback taggedCallback) {
+			if (!engine.running) {
+				engine.release(taggedCallback);
+				AgentMetrics.TAGS_LOST.increment();
+				return;
+			}
+			boolean accepted;
+			switch (engine.overflowPolicy) {
+			case SAMPLE:
+				if ((queue.size() >= (queue.capacity() >> 1)) && (ThreadLocalRandom.current().nextInt(engine.sampleRate) != 0)) {
+					accepted = false;
+				} else {
+					accepted = queue.offer(taggedCallback);
 				}
-				Tagging tagging = DynaTraceADKFactory.createTagging();
-				if (tagging == null) {
-					continue;
+				break;
+			default:
+				// BLOCK waited for a slot of any queue on the sending thread already, see reserve()
+				accepted = queue.offer(taggedCallback);
+				break;
+			}
+			if (!accepted) {
+				engine.release(taggedCallback);
+				dropped.increment();
+				AgentMetrics.TAGS_DROPPED.increment();
+			}
+		}
+
+		/**
+		 * Starts a thread for this worker unless one is running already.
+		 */
+		void start() {
+			Thread current = thread;
+			if ((current != null) && current.isAlive()) {
+				return;
+			}
+			startThread();
+		}
+
+		private void startThread() {
+			String threadName = "dynatrace-kafka-agent-" + name();
+			Thread newThread = null;
+			if (engine.workerThreads == WorkerThreads.VIRTUAL) {
+				newThread = VirtualThreads.newThread(this, threadName);
+			}
+			if (newThread == null) {
+				newThread = new Thread(this, threadName);
+				newThread.setDaemon(true);
+			}
+			thread = newThread;
+			newThread.start();
+		}
+
+		@Override
+		public void run() {
+			try {
+				// once stopped, pending records are left to stop(..), counting them as lost
+				while (engine.running) {
+					TaggedCallback taggedCallback;
+					try {
+						taggedCallback = queue.take();
+					} catch (InterruptedException e) {
+						continue;
+					}
+					try {
+						link(taggedCallback);
+					} catch (RuntimeException e) {
+						Logging.error("linking record of " + name() + " failed", e);
+					} finally {
+						engine.release(taggedCallback);
+					}
 				}
-				if (!tagging.isTagValid(taggedFuture.traceTag)) {
-					continue;
+			} catch (Throwable t) {
+				// anything but a failing record, e.g. an OutOfMemoryError
+				AgentMetrics.WORKER_RESTARTS.increment();
+				Logging.error(name() + " terminated unexpectedly - restarting", t);
+				synchronized (engine) {
+					// not while stopping, which is polling the queue once this thread terminated
+					if (engine.running) {
+						startThread();
+					}
 				}
-				tagging.setTag(taggedFuture.traceTag);
-				tagging.startServerPurePath();
-				Future<RecordMetadata> future = taggedFuture.future;
-				RecordMetadata recordMetadata = future.get();
-				if (recordMetadata == null) {
+			}
+		}
+
+		/**
+		 * Waits until the queue of this worker is empty or the given deadline has passed.
+		 */
+		void drain(long deadline) {
+			while ((queue.size() > 0) && (System.nanoTime() - deadline < 0)) {
+				Thread current = thread;
+				if ((current == null) || !current.isAlive()) {
 					return;
 				}
+				LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+			}
+		}
+
+		/**
+		 * Interrupts the thread of this worker and discards what is left within its queue.
+		 *
+		 * @return the number of records discarded
+		 */
+		int terminate() {
+			Thread current = thread;
+			if (current != null) {
+				current.interrupt();
+				try {
+					current.join(TERMINATION_TIMEOUT_MILLIS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				if (current.isAlive()) {
+					// still linking, the queue must not be polled concurrently
+					return queue.size();
+				}
+			}
+			int discarded = 0;
+			TaggedCallback taggedCallback;
+			while ((taggedCallback = queue.poll()) != null) {
+				engine.release(taggedCallback);
+				discarded++;
+			}
+			return discarded;
+		}
+
+		private void link(TaggedCallback taggedCallback) {
+			Tagging tagging = TaggingCache.current();
+			if (tagging == null) {
+				return;
+			}
+			if (!tagging.isTagValid(taggedCallback.traceTag)) {
+				return;
+			}
+			long start = System.nanoTime();
+			tagging.setTag(taggedCallback.traceTag);
+			tagging.startServerPurePath();
+			try {
+				RecordMetadata recordMetadata = taggedCallback.recordMetadata;
 				long offset = recordMetadata.offset();
 				String topic = recordMetadata.topic();
 				int partition = recordMetadata.partition();
-				
-				sendMQMessage(topic, partition, offset);
-				
+
+				engine.sendMQMessage(topic, partition, offset);
+
 //				CustomTag customTag = tagging.createCustomTag(CustomTagGen.gen(topic, partition, offset));
 //				tagging.linkClientPurePath(true, customTag);
-
-				
+			} finally {
 				tagging.endServerPurePath();
-			} catch (InterruptedException e) {
-				return;
-			} catch (ExecutionException e) {
-				e.printStackTrace();
+				linked.increment();
+				AgentMetrics.TAGS_LINKED.increment();
+				AgentMetrics.LINK_LATENCY.record(System.nanoTime() - start);
 			}
 		}
 	}
+
+	/**
+	 * Creates the engine once {@link AdkBootstrap} or the first acknowledged record
+	 * needs it, rather than when this class gets initialized on a sending thread.
+	 */
+	private static final class Holder {
+
+		static final KafkaProducerTaggingEngine INSTANCE = create();
+
+	}
+
+	private final OverflowPolicy overflowPolicy = AgentProperties.getEnum(PROPERTY_QUEUE_OVERFLOW, OverflowPolicy.class, OverflowPolicy.DROP);
+	private final int sampleRate = Math.max(1, AgentProperties.getInt(PROPERTY_QUEUE_SAMPLE_RATE, 10));
+	private final long blockTimeout = AgentProperties.getLong(PROPERTY_QUEUE_BLOCK_TIMEOUT, 10);
+	private final WorkerThreads workerThreads = resolveWorkerThreads();
+
+	private final Shard[] shards;
+
+	/**
+	 * The free slots of all queues for {@link OverflowPolicy#BLOCK}, {@code null} otherwise.
+	 */
+	private final Semaphore slots;
+
+	private volatile boolean running;
+
+	private static KafkaProducerTaggingEngine create() {
+		final KafkaProducerTaggingEngine engine = new KafkaProducerTaggingEngine();
+		engine.start();
+		try {
+			Runtime.getRuntime().addShutdownHook(new Thread("dynatrace-kafka-agent-engine-shutdown") {
+				@Override
+				public void run() {
+					engine.stop(AgentProperties.getLong(PROPERTY_SHUTDOWN_TIMEOUT, 2000), TimeUnit.MILLISECONDS);
+				}
+			});
+		} catch (IllegalStateException e) {
+			// the JVM is shutting down already
+		}
+		return engine;
+	}
+
+	private KafkaProducerTaggingEngine() {
+		int workers = Math.max(1, AgentProperties.getInt(PROPERTY_ENGINE_WORKERS, Runtime.getRuntime().availableProcessors()));
+		int capacity = AgentProperties.getInt(PROPERTY_QUEUE_CAPACITY, 65536);
+		if (capacity < 1) {
+			Logging.warn("Invalid value '{}' for System Property '{}' - falling back to '65536'", capacity, PROPERTY_QUEUE_CAPACITY);
+			capacity = 65536;
+		}
+		int share = (int) Math.min(RingBuffer.MAX_CAPACITY, ((long) capacity + workers - 1) / workers);
+		shards = new Shard[workers];
+		for (int i = 0; i < workers; i++) {
+			shards[i] = new Shard(this, i, share);
+		}
+		long total = 0;
+		for (Shard shard : shards) {
+			total += shard.capacity();
+		}
+		slots = (overflowPolicy == OverflowPolicy.BLOCK) ? new Semaphore((int) Math.min(Integer.MAX_VALUE, total)) : null;
+		AgentMetrics.setQueues(shards);
+	}
+
+	/**
+	 * @return the engine, started when called for the first time
+	 */
+	public static KafkaProducerTaggingEngine getInstance() {
+		return Holder.INSTANCE;
+	}
+
+	private static WorkerThreads resolveWorkerThreads() {
+		WorkerThreads workerThreads = AgentProperties.getEnum(PROPERTY_ENGINE_THREADS, WorkerThreads.class, WorkerThreads.PLATFORM);
+		if ((workerThreads == WorkerThreads.VIRTUAL) && !VirtualThreads.isAvailable()) {
+			Logging.info("virtual threads require Java 21 - running the workers on platform threads");
+			return WorkerThreads.PLATFORM;
+		}
+		return workerThreads;
+	}
+
+	/**
+	 * Starts the workers, if not running already. Happens when this class gets
+	 * initialized, so only needed after {@link #stop(long, TimeUnit)}.
+	 */
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		for (Shard shard : shards) {
+			shard.start();
+		}
+	}
+
+	/**
+	 * Stops the workers after waiting for them to link the records acknowledged so far.
+	 * Records still waiting once the given timeout elapsed and records acknowledged
+	 * while stopped are counted as {@link AgentMetrics#TAGS_LOST}.
+	 *
+	 * @param timeout how long to wait for the workers to link pending records
+	 * @param unit the {@link TimeUnit} of {@code timeout}
+	 *
+	 * @return {@code true} if all pending records got linked
+	 */
+	public synchronized boolean stop(long timeout, TimeUnit unit) {
+		if (!running) {
+			return true;
+		}
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for (Shard shard : shards) {
+			shard.drain(deadline);
+		}
+		running = false;
+		long lost = 0;
+		for (Shard shard : shards) {
+			lost += shard.terminate();
+		}
+		if (lost > 0) {
+			AgentMetrics.TAGS_LOST.add(lost);
+			Logging.warn("{} acknowledged records not linked within {} ms", lost, unit.toMillis(timeout));
+		}
+		return lost == 0;
+	}
+
+	/**
+	 * @return {@code true} if the workers have been started and not stopped since
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Called by {@code KafkaProducer.send} before the record is handed over to Kafka.<br />
+	 * <br />
+	 * Records of topics excluded by the {@link TopicFilter}, records sent before
+	 * {@link AdkBootstrap#isReady()} and records not chosen by the {@link Sampler}
+	 * are passed through untouched.
+	 * With {@link TraceTagHeaders#isEnabled()} the trace tag travels within the record
+	 * and nothing is left to do once Kafka acknowledged it. Skipped if the record gets
+	 * tagged via {@link #intercept(ProducerRecord)}, see {@link Interceptors#conflicts(boolean)}.
+	 *
+	 * @param record the record about to be sent
+	 * @param callback the {@link Callback} passed by the application, may be {@code null}
+	 *
+	 * @return the {@link Callback} to pass on to the original {@code send} method,
+	 * 		either the given one or one wrapping it in case the record needs to get linked later on
+	 */
+	public static Callback handle(ProducerRecord record, Callback callback) {
+		if (Interceptors.conflicts(false)) {
+			return callback;
+		}
+		return tag(record, callback);
+	}
+
+	private static Callback tag(ProducerRecord record, Callback callback) {
+		if (!TopicFilter.isTraced(record.topic())) {
+			AgentMetrics.RECORDS_FILTERED.increment();
+			return callback;
+		}
+		if (!AdkBootstrap.isReady()) {
+			AgentMetrics.RECORDS_NOT_READY.increment();
+			return callback;
+		}
+		if (!Sampler.sample(record.topic())) {
+			AgentMetrics.TAGS_SAMPLED_OUT.increment();
+			return callback;
+		}
+		byte[] traceTag = resolveTraceTag();
+		if (traceTag == null) {
+			AgentMetrics.TAGS_INVALID.increment();
+			return callback;
+		}
+		AgentMetrics.TAGS_CAPTURED.increment();
+		if (TraceTagHeaders.write(record, traceTag)) {
+			return callback;
+		}
+		KafkaProducerTaggingEngine engine = Holder.INSTANCE;
+		if (!engine.reserve()) {
+			AgentMetrics.TAGS_DROPPED.increment();
+			return callback;
+		}
+		return new TaggedCallback(callback, traceTag, engine.slots != null);
+	}
+
+	/**
+	 * Reserves a slot for a record about to be sent with {@link OverflowPolicy#BLOCK},
+	 * waiting on the sending thread, so the network thread of the Kafka producer never
+	 * waits for a worker once the record got acknowledged.<br />
+	 * <br />
+	 * The partition and therefore the worker of a record is only known once it got
+	 * acknowledged, so the slots bound the records in flight to the capacity of all
+	 * queues together. A worker receiving more than its share still drops records.
+	 *
+	 * @return {@code false} if no slot became free within the configured timeout
+	 */
+	private boolean reserve() {
+		if (slots == null) {
+			return true;
+		}
+		try {
+			return slots.tryAcquire(blockTimeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * Frees the slot reserved for the given record once it left the queues,
+	 * at most once per record.
+	 */
+	private void release(TaggedCallback taggedCallback) {
+		if (taggedCallback.release()) {
+			slots.release();
+		}
+	}
+
+	/**
+	 * Called by {@code KafkaProducer.send} if the original {@code send} method threw,
+	 * e.g. because the record could not be serialized or the producer has been closed.
+	 * Kafka does not call the {@link Callback} then, so the slot reserved for the record
+	 * with {@link OverflowPolicy#BLOCK} gets freed here.
+	 *
+	 * @param callback the {@link Callback} returned by {@link #handle(ProducerRecord, Callback)}
+	 */
+	public static void failed(Callback callback) {
+		if (callback instanceof TaggedCallback) {
+			Holder.INSTANCE.release((TaggedCallback) callback);
+		}
+	}
+
+	/**
+	 * Called by {@code TracingProducerInterceptor.onSend} on the sending thread, see
+	 * {@link com.dynatrace.kafka.Interceptors}. The trace tag gets written into a record
+	 * header, as the interceptor is not told which record got acknowledged.
+	 *
+	 * @param record the record about to be sent
+	 *
+	 * @return the given record
+	 */
+	public static ProducerRecord intercept(ProducerRecord record) {
+		if (Interceptors.conflicts(true)) {
+			return record;
+		}
+		if (tag(record, null) != null) {
+			// record headers not supported by this Kafka client, there is no callback to link with
+			AgentMetrics.TAGS_LOST.increment();
+		}
+		return record;
+	}
+
+	/**
+	 * Captures the trace tag of the sending thread and creates the client side of the link,
+	 * which the ADK only allows on the thread of the PurePath.<br />
+	 * <br />
+	 * With {@link com.dynatrace.kafka.Propagation#MQ} whether a record gets traced is only
+	 * decided once it got acknowledged, see {@link Sampler#sample(String, int, long)}. The link
+	 * is therefore created for every record which may get traced, and records sampled out
+	 * afterwards leave it without a server side, counted by {@link AgentMetrics#TAGS_UNMATCHED}.
+	 *
+	 * @return the trace tag or {@code null} if the record is not sent within a PurePath
+	 */
+	private static byte[] resolveTraceTag() {
+		Tagging tagging = TaggingCache.current();
+		if (tagging == null) {
+			return null;
+		}
+		byte[] currentTag = tagging.getTag();
+		if (!tagging.isTagValid(currentTag)) {
+			return null;
+		}
+		tagging.linkClientPurePath(true);
+		return currentTag;
+	}
+
+	/**
+	 * Hands over an acknowledged record to the worker owning its topic partition,
+	 * so the records of a partition get linked in the order they got acknowledged.
+	 */
+	private void enqueue(TaggedCallback taggedCallback) {
+		RecordMetadata recordMetadata = taggedCallback.recordMetadata;
+		shards[shard(recordMetadata.topic(), recordMetadata.partition(), shards.length)].enqueue(taggedCallback);
+	}
+
+	/**
+	 * @return the index of the worker owning the given topic partition
+	 */
+	static int shard(String topic, int partition, int shards) {
+		int hash = (topic == null) ? 0 : topic.hashCode();
+		hash = (hash * 31) + partition;
+		// spreading the bits, topic hash codes tend to differ in the lower bits only
+		hash ^= (hash >>> 16);
+		hash *= 0x85EBCA6B;
+		hash ^= (hash >>> 13);
+		return (hash & Integer.MAX_VALUE) % shards;
+	}
+
+	public void sendMQMessage(String topic, int partition, long offset) {
+		MQMessage mqMessage = MESSAGES.get();
+		mqMessage.set(offset, partition);
+		MQDestination mqQueue = DestinationCache.get(topic);
+		try {
+			mqQueue.put(mqMessage);
+		} catch (MQException e) {
+			Logging.warn("fake MQ put failed", e);
+		}
+	}
 }
@@ -0,0 +1,13 @@
+package org.apache.kafka.clients.producer;
+
+import org.apache.kafka.common.Configurable;
+
+public interface ProducerInterceptor<K, V> extends Configurable {
+
+	public ProducerRecord onSend(ProducerRecord record);
+
+	public void onAcknowledgement(RecordMetadata metadata, Exception exception);
+
+	public void close();
+
+}
@@ -1,5 +1,7 @@
 package org.apache.kafka.clients.producer;
 
+import org.apache.kafka.common.header.Headers;
+
 public class ProducerRecord {
 	
     public String topic() {
@@ -18,4 +20,8 @@ public class ProducerRecord {
         return 0;
     }
 
+    public Headers headers() {
+        return null;
+    }
+
 }
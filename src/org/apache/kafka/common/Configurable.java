@@ -0,0 +1,9 @@
+package org.apache.kafka.common;
+
+import java.util.Map;
+
+public interface Configurable {
+
+	public void configure(Map<String, ?> configs);
+
+}
@@ -0,0 +1,12 @@
+package org.apache.kafka.common;
+
+public final class TopicPartition {
+
+	public String topic() {
+		return null;
+	}
+
+	public int partition() {
+		return 0;
+	}
+}
@@ -0,0 +1,9 @@
+package org.apache.kafka.common.header;
+
+public interface Header {
+
+	public String key();
+
+	public byte[] value();
+
+}
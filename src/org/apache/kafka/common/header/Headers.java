@@ -0,0 +1,11 @@
+package org.apache.kafka.common.header;
+
+public interface Headers {
+
+	public Headers add(String key, byte[] value);
+
+	public Headers remove(String key);
+
+	public Header lastHeader(String key);
+
+}